@@ -0,0 +1,53 @@
+package com.dtcc.tril.workshop.benchmarks;
+
+import com.dtcc.tril.workshop.contracts.AssetContract;
+import net.corda.core.transactions.LedgerTransaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link AssetContract#verify} for each command over transactions of growing size.
+ *
+ * {@code size} is the number of states of each type in the transaction, so a Transfer or Settle of size 100 has
+ * 200 inputs and 200 outputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContractVerificationBenchmark {
+    @Param({"IssueCash", "IssueStock", "Transfer", "Settle"})
+    public String command;
+
+    @Param({"1", "10", "100", "1000"})
+    public int size;
+
+    private final AssetContract contract = new AssetContract();
+    private LedgerTransaction tx;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Ledger ledger = new Ledger();
+        switch (command) {
+            case "IssueCash":
+                tx = ledger.issuance(new AssetContract.Commands.IssueCash(), size);
+                break;
+            case "IssueStock":
+                tx = ledger.issuance(new AssetContract.Commands.IssueStock(), size);
+                break;
+            case "Transfer":
+                tx = ledger.swap(new AssetContract.Commands.Transfer(), ledger.issue(size));
+                break;
+            case "Settle":
+                tx = ledger.swap(ledger.settle(size), ledger.issue(size));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    @Benchmark
+    public void verify() {
+        contract.verify(tx);
+    }
+}
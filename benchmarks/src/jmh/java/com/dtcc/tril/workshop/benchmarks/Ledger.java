@@ -0,0 +1,166 @@
+package com.dtcc.tril.workshop.benchmarks;
+
+import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.states.Asset;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import kotlin.Pair;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.NetworkParameters;
+import net.corda.core.node.NotaryInfo;
+import net.corda.core.serialization.internal.SerializationEnvironmentKt;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.nodeapi.internal.persistence.CordaPersistence;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.corda.testing.core.TestConstants.DUMMY_NOTARY_NAME;
+import static net.corda.coretesting.internal.InternalSerializationTestHelpersKt.createTestSerializationEnv;
+import static net.corda.testing.common.internal.ParametersUtilitiesKt.testNetworkParameters;
+import static net.corda.testing.node.MockServicesKt.makeTestIdentityService;
+
+/**
+ * Builds synthetic Cash and Stock transactions between two parties for the benchmarks.
+ */
+final class Ledger {
+    static final List<String> CORDAPP_PACKAGES = Arrays.asList(
+            "com.dtcc.tril.workshop.contracts", "com.dtcc.tril.workshop.schemas");
+
+    final TestIdentity alice = new TestIdentity(new CordaX500Name("Alice", "London", "GB"));
+    final TestIdentity bob = new TestIdentity(new CordaX500Name("Bob", "New York", "US"));
+    final TestIdentity notary = new TestIdentity(DUMMY_NOTARY_NAME);
+    final MockServices services;
+    // Only set for a persistent ledger, which vault queries need.
+    final CordaPersistence database;
+
+    Ledger() {
+        this(false);
+    }
+
+    Ledger(boolean persistent) {
+        installSerialization();
+        // Resolving a transaction checks its notary against the network parameters, so they have to list ours.
+        final NetworkParameters networkParameters = testNetworkParameters(
+                Collections.singletonList(new NotaryInfo(notary.getParty(), false)), 4, Instant.now(),
+                10485760, 524288000, Collections.emptyMap(), 1, Duration.ofDays(30));
+        if (persistent) {
+            final Pair<CordaPersistence, MockServices> databaseAndServices =
+                    MockServices.makeTestDatabaseAndMockServices(
+                            CORDAPP_PACKAGES,
+                            makeTestIdentityService(alice.getIdentity(), bob.getIdentity(), notary.getIdentity()),
+                            alice,
+                            networkParameters,
+                            bob.getKeyPair());
+            this.database = databaseAndServices.getFirst();
+            this.services = databaseAndServices.getSecond();
+        } else {
+            this.database = null;
+            this.services = new MockServices(CORDAPP_PACKAGES, alice,
+                    makeTestIdentityService(alice.getIdentity(), bob.getIdentity(), notary.getIdentity()),
+                    networkParameters, bob.getKeyPair());
+        }
+    }
+
+    /**
+     * Serialization is process-wide in a node; JMH runs setup and benchmark methods on different threads, so the
+     * environment is installed globally rather than per thread.
+     */
+    static void installSerialization() {
+        if (SerializationEnvironmentKt.get_driverSerializationEnv().get() == null) {
+            SerializationEnvironmentKt.get_driverSerializationEnv().set(createTestSerializationEnv());
+        }
+    }
+
+    Cash cash(double amount, TestIdentity owner) {
+        return new Cash("USD", amount, owner.getParty());
+    }
+
+    Stock stock(double amount, TestIdentity owner) {
+        return new Stock("MSFT", amount, owner.getParty());
+    }
+
+    /** A transaction issuing {@code size} Cash states to Alice and {@code size} Stock states to Bob. */
+    SignedTransaction issue(int size) {
+        final TransactionBuilder builder = new TransactionBuilder(notary.getParty());
+        for (int i = 0; i < size; i++) {
+            builder.addOutputState(cash(100 + i, alice));
+            builder.addOutputState(stock(100 + i, bob));
+        }
+        builder.addCommand(new AssetContract.Commands.IssueCash(), alice.getPublicKey());
+        builder.addCommand(new AssetContract.Commands.IssueStock(), alice.getPublicKey());
+        return services.signInitialTransaction(builder);
+    }
+
+    /**
+     * The Settle command for a {@link #swap} of {@code issue(size)}: Alice's cash to Bob, Bob's stock to Alice. The
+     * maps are ordered, since serialization rejects maps whose iteration order is not stable.
+     */
+    AssetContract.Commands.Settle settle(int size) {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += Asset.toQuantity(100 + i);
+        final Map<Party, Long> cash = new LinkedHashMap<>();
+        cash.put(alice.getParty(), -total);
+        cash.put(bob.getParty(), total);
+        final Map<Party, Long> stock = new LinkedHashMap<>();
+        stock.put(bob.getParty(), -total);
+        stock.put(alice.getParty(), total);
+        return new AssetContract.Commands.Settle(
+                Collections.singletonMap("USD", cash), Collections.singletonMap("MSFT", stock));
+    }
+
+    /** A ledger transaction with only outputs, under the given issue command. */
+    LedgerTransaction issuance(CommandData command, int size) throws Exception {
+        final TransactionBuilder builder = new TransactionBuilder(notary.getParty());
+        for (int i = 0; i < size; i++) {
+            builder.addOutputState(command instanceof AssetContract.Commands.IssueCash
+                    ? cash(100 + i, alice)
+                    : stock(100 + i, bob));
+        }
+        builder.addCommand(command, alice.getPublicKey());
+        return builder.toLedgerTransaction(services);
+    }
+
+    /**
+     * A ledger transaction moving every state of {@code issued} to the other party under the given command, which is
+     * one of Transfer or Settle.
+     */
+    LedgerTransaction swap(CommandData command, SignedTransaction issued) throws Exception {
+        return swapBuilder(command, issued).toLedgerTransaction(services);
+    }
+
+    TransactionBuilder swapBuilder(CommandData command, SignedTransaction issued) {
+        services.recordTransactions(Collections.singletonList(issued));
+
+        final TransactionBuilder builder = new TransactionBuilder(notary.getParty());
+        final List<StateAndRef<Cash>> cash = new ArrayList<>();
+        final List<StateAndRef<Stock>> stock = new ArrayList<>();
+        for (int i = 0; i < issued.getTx().getOutputs().size(); i++) {
+            if (issued.getTx().getOutput(i) instanceof Cash) cash.add(issued.getTx().outRef(i));
+            else stock.add(issued.getTx().outRef(i));
+        }
+        for (StateAndRef<Cash> input : cash) {
+            builder.addInputState(input);
+            builder.addOutputState(cash(input.getState().getData().getAmount(), bob));
+        }
+        for (StateAndRef<Stock> input : stock) {
+            builder.addInputState(input);
+            builder.addOutputState(stock(input.getState().getData().getAmount(), alice));
+        }
+        builder.addCommand(command, alice.getPublicKey(), bob.getPublicKey());
+        return builder;
+    }
+}
@@ -0,0 +1,87 @@
+package com.dtcc.tril.workshop.benchmarks;
+
+import com.dtcc.tril.workshop.contracts.AssetContract;
+import net.corda.core.serialization.SerializationContext;
+import net.corda.core.serialization.SerializationDefaults;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.core.serialization.SerializedBytes;
+import net.corda.core.transactions.SignedTransaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AMQP serialization cost and size of Cash, Stock and the transactions that carry them, using the P2P context that
+ * nodes use on the wire and in transaction storage.
+ *
+ * The {@code bytes} counter reports the serialized size: divide it by the benchmark's operation count, which JMH
+ * also reports, for bytes per object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+    @Param({"Cash", "Stock", "IssueTransaction", "TransferTransaction"})
+    public String subject;
+
+    // The number of states of each type in the transaction subjects.
+    @Param({"1", "100"})
+    public int size;
+
+    private SerializationFactory factory;
+    private SerializationContext context;
+    private Object object;
+    private Class<?> type;
+    private SerializedBytes<Object> serialized;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        final Ledger ledger = new Ledger();
+        factory = SerializationFactory.Companion.getDefaultFactory();
+        context = SerializationDefaults.INSTANCE.getP2P_CONTEXT();
+
+        switch (subject) {
+            case "Cash":
+                object = ledger.cash(100, ledger.alice);
+                break;
+            case "Stock":
+                object = ledger.stock(100, ledger.bob);
+                break;
+            case "IssueTransaction":
+                object = ledger.issue(size);
+                break;
+            case "TransferTransaction":
+                final SignedTransaction issued = ledger.issue(size);
+                object = ledger.services.signInitialTransaction(
+                        ledger.swapBuilder(new AssetContract.Commands.Transfer(), issued));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown subject " + subject);
+        }
+        type = object.getClass();
+        serialized = factory.serialize(object, context);
+    }
+
+    @Benchmark
+    public SerializedBytes<Object> serialize(Size counter) {
+        final SerializedBytes<Object> bytes = factory.serialize(object, context);
+        counter.bytes += bytes.getSize();
+        return bytes;
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return factory.deserialize(serialized, type, context);
+    }
+}
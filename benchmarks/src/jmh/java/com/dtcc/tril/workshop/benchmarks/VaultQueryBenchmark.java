@@ -0,0 +1,88 @@
+package com.dtcc.tril.workshop.benchmarks;
+
+import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.queries.AssetQueries;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.nodeapi.internal.persistence.CordaPersistence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * The vault lookups behind {@code TransferFlow.Initiator.queryCash} and {@code queryStock}, against an H2 vault
+ * holding {@code vaultSize} states of each type split between two owners.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VaultQueryBenchmark {
+    private static final int STATES_PER_TRANSACTION = 500;
+    private static final PageSpecification FIRST_MATCH = new PageSpecification(DEFAULT_PAGE_NUM, 1);
+
+    @Param({"1000", "10000", "100000"})
+    public int vaultSize;
+
+    private Ledger ledger;
+    private CordaPersistence database;
+    private QueryCriteria cashCriteria;
+    private QueryCriteria stockCriteria;
+
+    @Setup
+    public void setUp() {
+        ledger = new Ledger(true);
+        database = ledger.database;
+
+        final List<SignedTransaction> transactions = new ArrayList<>();
+        for (int issued = 0; issued < vaultSize; issued += STATES_PER_TRANSACTION) {
+            final TransactionBuilder builder = new TransactionBuilder(ledger.notary.getParty());
+            for (int i = issued; i < Math.min(issued + STATES_PER_TRANSACTION, vaultSize); i++) {
+                // Alice is a participant in every state so that all of them are recorded in her vault.
+                final Cash cash = ledger.cash(100 + i % 1000, i % 2 == 0 ? ledger.alice : ledger.bob)
+                        .withParticipant(ledger.alice.getParty());
+                final Stock stock = ledger.stock(100 + i % 1000, i % 2 == 0 ? ledger.bob : ledger.alice)
+                        .withParticipant(ledger.alice.getParty());
+                builder.addOutputState(cash);
+                builder.addOutputState(stock);
+            }
+            builder.addCommand(new AssetContract.Commands.IssueCash(), ledger.alice.getPublicKey());
+            builder.addCommand(new AssetContract.Commands.IssueStock(), ledger.alice.getPublicKey());
+            transactions.add(ledger.services.signInitialTransaction(builder));
+        }
+        database.transaction(tx -> {
+            ledger.services.recordTransactions(transactions);
+            return null;
+        });
+
+        // Look for a state near the middle of the vault.
+        final double amount = 100 + (vaultSize / 2) % 1000;
+        cashCriteria = AssetQueries.cashCriteria(ledger.alice.getParty(), "USD", amount);
+        stockCriteria = AssetQueries.stockCriteria(ledger.bob.getParty(), "MSFT", amount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<StateAndRef<Cash>> queryCash() {
+        return database.transaction(tx ->
+                ledger.services.getVaultService().queryBy(Cash.class, cashCriteria, FIRST_MATCH).getStates());
+    }
+
+    @Benchmark
+    public List<StateAndRef<Stock>> queryStock() {
+        return database.transaction(tx ->
+                ledger.services.getVaultService().queryBy(Stock.class, stockCriteria, FIRST_MATCH).getStates());
+    }
+}
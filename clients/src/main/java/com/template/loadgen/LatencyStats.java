@@ -0,0 +1,74 @@
+package com.template.loadgen;
+
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcome counts for one operation. Safe to record into from many threads.
+ *
+ * Latencies are taken from the time a flow was scheduled to start, not the time it actually started, so time spent
+ * queued behind a saturated node is counted rather than hidden.
+ */
+final class LatencyStats {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Histogram latencies = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder notaryConflicts = new LongAdder();
+
+    void success(long latencyNanos) {
+        latencies.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        completed.increment();
+    }
+
+    void failure(Throwable error) {
+        errors.increment();
+        if (isNotaryConflict(error)) notaryConflicts.increment();
+    }
+
+    void add(LatencyStats other) {
+        latencies.add(other.latencies);
+        completed.add(other.completed.sum());
+        errors.add(other.errors.sum());
+        notaryConflicts.add(other.notaryConflicts.sum());
+    }
+
+    Map<String, Object> report(double seconds) {
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("completed", completed.sum());
+        report.put("errors", errors.sum());
+        report.put("notaryConflicts", notaryConflicts.sum());
+        report.put("throughputPerSecond", completed.sum() / seconds);
+
+        final Map<String, Object> millis = new LinkedHashMap<>();
+        millis.put("mean", latencies.getMean() / 1000);
+        millis.put("p50", percentile(50));
+        millis.put("p90", percentile(90));
+        millis.put("p99", percentile(99));
+        millis.put("p99.9", percentile(99.9));
+        millis.put("max", latencies.getMaxValue() / 1000.0);
+        report.put("latencyMillis", millis);
+        return report;
+    }
+
+    private double percentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static boolean isNotaryConflict(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NotaryException && ((NotaryException) cause).getError() instanceof NotaryError.Conflict) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
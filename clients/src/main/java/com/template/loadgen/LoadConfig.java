@@ -0,0 +1,118 @@
+package com.template.loadgen;
+
+import net.corda.core.utilities.NetworkHostAndPort;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings for a {@link LoadGenerator} run, given on the command line as {@code key=value} arguments.
+ *
+ * <pre>
+ * nodes        comma-separated RPC addresses            localhost:10006,localhost:10009
+ * username     RPC username                             user1
+ * password     RPC password                             test
+ * rate         flows started per second, all nodes      10
+ * duration     measured seconds                         60
+ * warmup       unmeasured seconds before the run        10
+ * concurrency  flows in flight per node                 32
+ * mix          weights of issueCash,issueStock,transfer 40,40,20
+ * seed         seed for the operation mix               1
+ * report       path of the JSON report                  build/reports/loadgen/report.json
+ * </pre>
+ */
+final class LoadConfig {
+    final List<NetworkHostAndPort> nodes;
+    final String username;
+    final String password;
+    final double rate;
+    final Duration duration;
+    final Duration warmup;
+    final int concurrency;
+    final Map<Operation, Integer> mix;
+    final long seed;
+    final Path report;
+
+    private LoadConfig(Map<String, String> args) {
+        this.nodes = nodes(args.getOrDefault("nodes", "localhost:10006,localhost:10009"));
+        this.username = args.getOrDefault("username", "user1");
+        this.password = args.getOrDefault("password", "test");
+        this.rate = Double.parseDouble(args.getOrDefault("rate", "10"));
+        this.duration = Duration.ofSeconds(Long.parseLong(args.getOrDefault("duration", "60")));
+        this.warmup = Duration.ofSeconds(Long.parseLong(args.getOrDefault("warmup", "10")));
+        this.concurrency = Integer.parseInt(args.getOrDefault("concurrency", "32"));
+        this.mix = mix(args.getOrDefault("mix", "40,40,20"));
+        this.seed = Long.parseLong(args.getOrDefault("seed", "1"));
+        this.report = Paths.get(args.getOrDefault("report", "build/reports/loadgen/report.json"));
+
+        if (rate <= 0) throw new IllegalArgumentException("rate must be positive");
+        if (concurrency <= 0) throw new IllegalArgumentException("concurrency must be positive");
+    }
+
+    static LoadConfig parse(String[] args) {
+        final Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 1) throw new IllegalArgumentException("Expected key=value but got " + arg);
+            values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return new LoadConfig(values);
+    }
+
+    /** The number of flows started over warmup and the measured run together. */
+    long totalFlows() {
+        return (long) Math.ceil(rate * (warmup.getSeconds() + duration.getSeconds()));
+    }
+
+    /** The share of flows that are of the given operation. */
+    double share(Operation operation) {
+        final int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        return (double) mix.get(operation) / total;
+    }
+
+    Map<String, Object> describe() {
+        final Map<String, Object> description = new LinkedHashMap<>();
+        description.put("nodes", nodes.toString());
+        description.put("rate", rate);
+        description.put("durationSeconds", duration.getSeconds());
+        description.put("warmupSeconds", warmup.getSeconds());
+        description.put("concurrency", concurrency);
+        description.put("mix", mix);
+        description.put("seed", seed);
+        return description;
+    }
+
+    private static List<NetworkHostAndPort> nodes(String value) {
+        final List<NetworkHostAndPort> nodes = new ArrayList<>();
+        for (String node : value.split(",")) {
+            nodes.add(NetworkHostAndPort.parse(node.trim()));
+        }
+        return Collections.unmodifiableList(nodes);
+    }
+
+    private static Map<Operation, Integer> mix(String value) {
+        final String[] weights = value.split(",");
+        final Operation[] operations = Operation.values();
+        if (weights.length != operations.length) {
+            throw new IllegalArgumentException("mix needs one weight for each of issueCash, issueStock and transfer");
+        }
+        final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            final int weight = Integer.parseInt(weights[i].trim());
+            if (weight < 0) throw new IllegalArgumentException("mix weights cannot be negative");
+            mix.put(operations[i], weight);
+            total += weight;
+        }
+        if (total == 0) throw new IllegalArgumentException("mix needs at least one positive weight");
+        return Collections.unmodifiableMap(mix);
+    }
+}
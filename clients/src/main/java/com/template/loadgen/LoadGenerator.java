@@ -0,0 +1,222 @@
+package com.template.loadgen;
+
+import com.dtcc.tril.workshop.flows.BatchIssueCashFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueStockFlow;
+import com.dtcc.tril.workshop.flows.IssueCashFlow;
+import com.dtcc.tril.workshop.flows.IssueStockFlow;
+import com.dtcc.tril.workshop.flows.TransferFlow;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts IssueCashFlow, IssueStockFlow and TransferFlow over RPC at a fixed arrival rate and reports latency
+ * percentiles, throughput and failures as JSON. See {@link LoadConfig} for the settings.
+ *
+ * The load is open-loop: flows are scheduled at {@code rate} per second whether or not earlier ones have finished, so
+ * a deployment that cannot keep up shows it in its latencies instead of quietly lowering the rate. At most
+ * {@code concurrency} flows are in flight per node; the rest queue, and their queueing time is part of their latency.
+ *
+ * Transfers need a Cash state owned by the node and a Stock state owned by its counterparty in the node's vault, so
+ * enough of both are issued before the run starts.
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    // AssetContract only accepts USD, so issued Cash is kept out of transfer selection by its amount instead: issues
+    // are always for more than TRANSFER_AMOUNT.
+    private static final String CURRENCY = "USD";
+    private static final String ISSUE_TICKER = "LGEN";
+    private static final String TRANSFER_TICKER = "LGTX";
+    private static final double TRANSFER_AMOUNT = 1.0;
+    private static final int INVENTORY_BATCH_SIZE = 500;
+
+    public static void main(String[] args) throws Exception {
+        final LoadConfig config = LoadConfig.parse(args);
+        final List<Target> targets = new ArrayList<>();
+        try {
+            for (NetworkHostAndPort node : config.nodes) {
+                targets.add(new Target(node, config));
+            }
+            new LoadGenerator().run(config, targets);
+        } finally {
+            for (Target target : targets) {
+                target.close();
+            }
+        }
+    }
+
+    private void run(LoadConfig config, List<Target> targets) throws Exception {
+        final long totalFlows = config.totalFlows();
+        final long warmupFlows = (long) Math.ceil(config.rate * config.warmup.getSeconds());
+        final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / config.rate);
+
+        final long inventory = (long) Math.ceil(totalFlows * config.share(Operation.TRANSFER) / targets.size() * 1.2) + 10;
+        if (config.mix.get(Operation.TRANSFER) > 0) {
+            logger.info("Issuing {} transfer inputs on each node", inventory);
+            for (Target target : targets) {
+                target.issueTransferInventory(inventory);
+            }
+        }
+
+        final Map<Operation, LatencyStats> stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new LatencyStats());
+        }
+        final Random random = new Random(config.seed);
+        final CountDownLatch finished = new CountDownLatch(Math.toIntExact(totalFlows));
+
+        logger.info("Starting {} flows at {}/s across {} nodes", totalFlows, config.rate, targets.size());
+        final Instant startedAt = Instant.now();
+        final long start = System.nanoTime();
+        for (long i = 0; i < totalFlows; i++) {
+            final long scheduled = start + i * interval;
+            LockSupport.parkNanos(scheduled - System.nanoTime());
+
+            final Operation operation = pick(config, random);
+            final double amount = TRANSFER_AMOUNT + 1 + random.nextInt(1000);
+            final Target target = targets.get((int) (i % targets.size()));
+            final LatencyStats recorder = i < warmupFlows ? null : stats.get(operation);
+            target.executor.execute(() -> {
+                try {
+                    target.start(operation, amount).get();
+                    if (recorder != null) recorder.success(System.nanoTime() - scheduled);
+                } catch (ExecutionException e) {
+                    if (recorder != null) recorder.failure(e.getCause());
+                } catch (Exception e) {
+                    if (recorder != null) recorder.failure(e);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+        finished.await();
+        final double measuredSeconds = (System.nanoTime() - (start + warmupFlows * interval)) / 1e9;
+
+        final LatencyStats overall = new LatencyStats();
+        final Map<String, Object> operations = new LinkedHashMap<>();
+        for (Map.Entry<Operation, LatencyStats> entry : stats.entrySet()) {
+            overall.add(entry.getValue());
+            operations.put(entry.getKey().label, entry.getValue().report(measuredSeconds));
+        }
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config.describe());
+        report.put("startedAt", startedAt.toString());
+        report.put("measuredSeconds", measuredSeconds);
+        report.put("transferInventoryPerNode", inventory);
+        report.put("overall", overall.report(measuredSeconds));
+        report.put("operations", operations);
+
+        if (config.report.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(config.report.toAbsolutePath().getParent());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(config.report.toFile(), report);
+        logger.info("Overall: {}", report.get("overall"));
+        logger.info("Report written to {}", config.report.toAbsolutePath());
+    }
+
+    private static Operation pick(LoadConfig config, Random random) {
+        final int total = config.mix.values().stream().mapToInt(Integer::intValue).sum();
+        int ticket = random.nextInt(total);
+        for (Operation operation : Operation.values()) {
+            ticket -= config.mix.get(operation);
+            if (ticket < 0) return operation;
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    /**
+     * One node under load, with the pool that bounds its in-flight flows.
+     */
+    private static final class Target implements AutoCloseable {
+        private final CordaRPCConnection connection;
+        private final CordaRPCOps proxy;
+        private final Party me;
+        private final Party counterparty;
+        private final ExecutorService executor;
+
+        Target(NetworkHostAndPort address, LoadConfig config) {
+            this.connection = new CordaRPCClient(address).start(config.username, config.password);
+            this.proxy = connection.getProxy();
+            this.me = proxy.nodeInfo().getLegalIdentities().get(0);
+            this.counterparty = counterparty();
+            this.executor = Executors.newFixedThreadPool(config.concurrency);
+        }
+
+        /** The first other non-notary party on the network by name, or this node if it is alone. */
+        private Party counterparty() {
+            final List<Party> notaries = proxy.notaryIdentities();
+            return proxy.networkMapSnapshot().stream()
+                    .map(NodeInfo::getLegalIdentities)
+                    .map(identities -> identities.get(0))
+                    .filter(party -> !party.equals(me) && !notaries.contains(party))
+                    .min(Comparator.comparing(party -> party.getName().toString()))
+                    .orElse(me);
+        }
+
+        CordaFuture<?> start(Operation operation, double amount) {
+            switch (operation) {
+                case ISSUE_CASH:
+                    return proxy.startFlowDynamic(IssueCashFlow.Initiator.class,
+                            CURRENCY, amount, counterparty).getReturnValue();
+                case ISSUE_STOCK:
+                    return proxy.startFlowDynamic(IssueStockFlow.Initiator.class,
+                            ISSUE_TICKER, amount, counterparty).getReturnValue();
+                case TRANSFER:
+                    return proxy.startFlowDynamic(TransferFlow.Initiator.class,
+                            new Cash(CURRENCY, TRANSFER_AMOUNT, me),
+                            new Stock(TRANSFER_TICKER, TRANSFER_AMOUNT, counterparty)).getReturnValue();
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + operation);
+            }
+        }
+
+        /** Issues {@code count} Cash states to this node and Stock states to its counterparty, for transfers. */
+        void issueTransferInventory(long count) throws Exception {
+            for (long issued = 0; issued < count; issued += INVENTORY_BATCH_SIZE) {
+                final int size = (int) Math.min(INVENTORY_BATCH_SIZE, count - issued);
+                final List<BatchIssueCashFlow.Entry> cash = new ArrayList<>(size);
+                final List<BatchIssueStockFlow.Entry> stock = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    cash.add(new BatchIssueCashFlow.Entry(CURRENCY, TRANSFER_AMOUNT, me));
+                    stock.add(new BatchIssueStockFlow.Entry(TRANSFER_TICKER, TRANSFER_AMOUNT, counterparty));
+                }
+                proxy.startFlowDynamic(BatchIssueCashFlow.Initiator.class, cash).getReturnValue().get();
+                proxy.startFlowDynamic(BatchIssueStockFlow.Initiator.class, stock).getReturnValue().get();
+            }
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+            connection.notifyServerAndClose();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.template.loadgen;
+
+/**
+ * The flows a {@link LoadGenerator} starts, in the order their weights are given in {@code mix}.
+ */
+enum Operation {
+    ISSUE_CASH("issueCash"),
+    ISSUE_STOCK("issueStock"),
+    TRANSFER("transfer");
+
+    final String label;
+
+    Operation(String label) {
+        this.label = label;
+    }
+}
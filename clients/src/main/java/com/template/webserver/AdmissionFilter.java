@@ -0,0 +1,302 @@
+package com.template.webserver;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for the REST API: a bulkhead per class of endpoint, so that a burst of one kind of request cannot
+ * take every servlet thread or fill the node's flow state machine and starve the others.
+ *
+ * Each class (issue, transfer and query) admits up to its current limit of requests at once and queues up to
+ * {@code queue-depth} more for at most {@code config.admission.queue-timeout-ms}. Anything beyond that is refused at
+ * once with {@code 429 Too Many Requests} and a {@code Retry-After} estimated from recent latency, rather than being
+ * accepted and left to time out. A request that starts a flow with {@code async=true} keeps its place until the flow
+ * finishes, so asynchronous starts are bounded the same way as synchronous ones.
+ *
+ * The limits adapt to observed latency, additive-increase/multiplicative-decrease: each request finishing within its
+ * class's {@code target-latency-ms} while the class is busy raises the limit by about one per limit's worth of
+ * requests, and one finishing late, or timing out, cuts it by {@code config.admission.backoff}, at most once per
+ * target latency. The node is thereby held near the concurrency at which its flows still finish promptly, instead of
+ * being pushed into the range where most of its time goes to checkpointing and reloading suspended flows.
+ *
+ * The long-running streams, {@code /import}, {@code /export} and {@code /history}, take a place like any other
+ * request but do not feed the limit. Settings are read per class from {@code config.admission.<class>.*};
+ * {@code /actuator} is never limited. The {@code /ws} connection itself is not limited either, but the flows started
+ * over it take their place in the same bulkheads through {@link #admit}. The current limit, the requests running and
+ * queued, and the refusals are published as {@code admission.*} meters tagged by class.
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+    private static final String HOLD = AdmissionFilter.class.getName() + ".hold";
+
+    enum EndpointClass { ISSUE, TRANSFER, QUERY }
+
+    private final boolean enabled;
+    private final long queueTimeoutMillis;
+    private final double backoff;
+    private final Map<EndpointClass, Bulkhead> bulkheads = new EnumMap<>(EndpointClass.class);
+
+    public AdmissionFilter(Environment env, MeterRegistry registry) {
+        this.enabled = env.getProperty("config.admission.enabled", Boolean.class, true);
+        this.queueTimeoutMillis = env.getProperty("config.admission.queue-timeout-ms", Long.class, 1000L);
+        this.backoff = env.getProperty("config.admission.backoff", Double.class, 0.9);
+        bulkheads.put(EndpointClass.ISSUE, new Bulkhead(env, "issue", 16, 32, 2000));
+        bulkheads.put(EndpointClass.TRANSFER, new Bulkhead(env, "transfer", 8, 16, 5000));
+        bulkheads.put(EndpointClass.QUERY, new Bulkhead(env, "query", 32, 64, 500));
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            Gauge.builder("admission.limit", bulkhead, b -> b.limit).tag("class", bulkhead.name).register(registry);
+            Gauge.builder("admission.running", bulkhead, b -> b.running).tag("class", bulkhead.name)
+                    .register(registry);
+            Gauge.builder("admission.queued", bulkhead, b -> b.queued).tag("class", bulkhead.name).register(registry);
+            bulkhead.rejected = registry.counter("admission.rejected", "class", bulkhead.name);
+        }
+    }
+
+    /**
+     * Keeps the current request's place in its bulkhead until {@code flow} completes, rather than until the response
+     * is sent. Used for flows started with {@code async=true}.
+     */
+    static void holdUntil(CompletableFuture<?> flow) {
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) attributes.setAttribute(HOLD, flow, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    /**
+     * Runs {@code start}, which starts a flow, under the bulkhead of {@code endpointClass} and keeps its place until
+     * the flow completes. For flows started other than by a request through this filter, such as over STOMP.
+     *
+     * @throws Refused if the bulkhead is full and its queue does not clear in time
+     */
+    void admit(EndpointClass endpointClass, Supplier<CompletableFuture<?>> start) {
+        if (!enabled) {
+            start.get();
+            return;
+        }
+        final Bulkhead bulkhead = bulkheads.get(endpointClass);
+        final Permit permit = bulkhead.acquire(true);
+        if (permit == null) {
+            bulkhead.rejected.increment();
+            throw new Refused(bulkhead.name, bulkhead.retryAfterSeconds());
+        }
+        try {
+            start.get().whenComplete((result, e) -> permit.release(true));
+        } catch (RuntimeException e) {
+            permit.release(true);
+            throw e;
+        }
+    }
+
+    /** A flow refused by {@link #admit}; the message says when to retry. */
+    static class Refused extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Refused(String name, long retryAfterSeconds) {
+            super("Too many " + name + " requests in progress, retry in " + retryAfterSeconds + " seconds");
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        final String path = path(request);
+        return !enabled || path.startsWith("/actuator") || path.startsWith("/ws");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        final String path = path(request);
+        final Bulkhead bulkhead = bulkheads.get(classify(request.getMethod(), path));
+        final Permit permit = bulkhead.acquire(!streaming(path));
+        if (permit == null) {
+            bulkhead.rejected.increment();
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(bulkhead.retryAfterSeconds()));
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Too many " + bulkhead.name + " requests in progress, retry later\n");
+            return;
+        }
+
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                async = true;
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        finished(request, permit);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        permit.release(false);
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        permit.release(false);
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            }
+        } finally {
+            if (!async) finished(request, permit);
+        }
+    }
+
+    private static void finished(HttpServletRequest request, Permit permit) {
+        final Object hold = request.getAttribute(HOLD);
+        if (hold instanceof CompletableFuture) {
+            ((CompletableFuture<?>) hold).whenComplete((result, e) -> permit.release(true));
+        } else {
+            permit.release(true);
+        }
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private static EndpointClass classify(String method, String path) {
+        if (!"POST".equals(method)) return EndpointClass.QUERY;
+        if (path.startsWith("/transfer")) return EndpointClass.TRANSFER;
+        if (path.startsWith("/create-") || path.startsWith("/import")) return EndpointClass.ISSUE;
+        return EndpointClass.QUERY;
+    }
+
+    // Streams run for as long as their data takes, so their latency says nothing about the node's load.
+    private static boolean streaming(String path) {
+        return path.startsWith("/import") || path.startsWith("/export") || path.startsWith("/history");
+    }
+
+    /** The admission limit and queue of one class of endpoint. */
+    private class Bulkhead {
+        private final String name;
+        private final int minLimit;
+        private final int maxLimit;
+        private final int queueDepth;
+        private final long targetNanos;
+        private Counter rejected;
+        // Guarded by this.
+        private double limit;
+        private int running;
+        private int queued;
+        private long lastDecrease;
+        // Smoothed latency of admitted requests, for Retry-After.
+        private double latencyNanos;
+
+        Bulkhead(Environment env, String name, int initialLimit, int queueDepth, long targetMillis) {
+            final String prefix = "config.admission." + name + ".";
+            this.name = name;
+            this.limit = env.getProperty(prefix + "initial-limit", Integer.class, initialLimit);
+            this.minLimit = env.getProperty(prefix + "min-limit", Integer.class, 1);
+            this.maxLimit = env.getProperty(prefix + "max-limit", Integer.class, initialLimit * 4);
+            this.queueDepth = env.getProperty(prefix + "queue-depth", Integer.class, queueDepth);
+            this.targetNanos = TimeUnit.MILLISECONDS.toNanos(
+                    env.getProperty(prefix + "target-latency-ms", Long.class, targetMillis));
+            if (minLimit < 1 || maxLimit < minLimit) {
+                throw new IllegalArgumentException(prefix + "min-limit and max-limit must satisfy 1 <= min <= max");
+            }
+            this.limit = Math.max(minLimit, Math.min(maxLimit, limit));
+            this.latencyNanos = targetNanos;
+            this.lastDecrease = System.nanoTime() - targetNanos;
+        }
+
+        /** Admits a request, waiting in the queue if there is room; null if the request must be refused. */
+        synchronized Permit acquire(boolean measured) {
+            if (running < (int) limit) return admit(measured);
+            if (queued >= queueDepth) return null;
+
+            queued++;
+            try {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+                long remaining;
+                while (running >= (int) limit && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                queued--;
+            }
+            return running < (int) limit ? admit(measured) : null;
+        }
+
+        private Permit admit(boolean measured) {
+            running++;
+            return new Permit(this, measured, System.nanoTime());
+        }
+
+        /** Gives back a place and adjusts the limit by the request's latency, or as a failure if it timed out. */
+        synchronized void release(Permit permit, boolean completed) {
+            final boolean busy = running >= limit / 2;
+            running--;
+            notifyAll();
+            if (!permit.measured) return;
+
+            final long now = System.nanoTime();
+            final long latency = now - permit.startedAt;
+            latencyNanos += (latency - latencyNanos) * 0.1;
+
+            if (!completed || latency > targetNanos) {
+                if (now - lastDecrease > targetNanos) {
+                    limit = Math.max(minLimit, limit * backoff);
+                    lastDecrease = now;
+                }
+            } else if (busy) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        /** How long a refused client should wait: roughly the time for the queue ahead of it to drain. */
+        synchronized long retryAfterSeconds() {
+            final double drainNanos = latencyNanos * (queued + 1) / Math.max(1, (int) limit);
+            return Math.max(1, (long) Math.ceil(drainNanos / TimeUnit.SECONDS.toNanos(1)));
+        }
+    }
+
+    /** One admitted request's place in its bulkhead, given back exactly once. */
+    private static class Permit {
+        private final Bulkhead bulkhead;
+        private final boolean measured;
+        private final long startedAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Bulkhead bulkhead, boolean measured, long startedAt) {
+            this.bulkhead = bulkhead;
+            this.measured = measured;
+            this.startedAt = startedAt;
+        }
+
+        void release(boolean completed) {
+            if (released.compareAndSet(false, true)) bulkhead.release(this, completed);
+        }
+    }
+}
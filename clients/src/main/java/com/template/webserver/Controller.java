@@ -1,18 +1,27 @@
 package com.template.webserver;
 
+import com.dtcc.tril.workshop.flows.BatchIssueCashFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueStockFlow;
 import com.dtcc.tril.workshop.flows.IssueCashFlow;
 import com.dtcc.tril.workshop.flows.IssueStockFlow;
 import com.dtcc.tril.workshop.flows.TransferFlow;
+import com.dtcc.tril.workshop.queries.AssetQueries;
+import com.dtcc.tril.workshop.queries.Position;
 import com.dtcc.tril.workshop.states.Cash;
 import com.dtcc.tril.workshop.states.Stock;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.corda.client.jackson.JacksonSupport;
 import net.corda.core.contracts.ContractState;
-import net.corda.core.contracts.StateAndRef;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
 import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
 import net.corda.core.transactions.SignedTransaction;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x500.style.BCStyle;
@@ -21,13 +30,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -41,12 +56,25 @@ import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
 @RequestMapping("/") // The paths for HTTP requests are relative to this base path.
 public class Controller {
     private static final Logger logger = LoggerFactory.getLogger(RestController.class);
+    // The largest page any read endpoint will return, however many states are asked for.
+    private static final int MAX_PAGE_SIZE = 1000;
     private final CordaRPCOps proxy;
     private final CordaX500Name me;
-
-    public Controller(NodeRPCConnection rpc) {
+    private final PositionCache cache;
+    private final FlowRegistry flowRegistry;
+    private final IdentityCache identities;
+    private final SettlementEngine batching;
+    private final IdempotencyCache idempotency;
+
+    public Controller(NodeRPCConnection rpc, PositionCache cache, FlowRegistry flowRegistry,
+                      IdentityCache identities, SettlementEngine batching, IdempotencyCache idempotency) {
         this.proxy = rpc.proxy;
-        this.me = proxy.nodeInfo().getLegalIdentities().get(0).getName();
+        this.cache = cache;
+        this.flowRegistry = flowRegistry;
+        this.identities = identities;
+        this.batching = batching;
+        this.idempotency = idempotency;
+        this.me = identities.me().getName();
     }
 
     /** Helpers for filtering the network map cache. */
@@ -54,18 +82,22 @@ public class Controller {
         return BCStyle.INSTANCE.toString(name);
     }
 
-    private boolean isNotary(NodeInfo nodeInfo) {
-        return !proxy.notaryIdentities()
-                .stream().filter(el -> nodeInfo.isLegalIdentity(el))
-                .collect(Collectors.toList()).isEmpty();
+    /** Helpers for paging and filtering vault queries. */
+    private static PageSpecification paging(int page, int pageSize) {
+        if (page < 1) throw new IllegalArgumentException("page must be at least 1");
+        return new PageSpecification(page, Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)));
     }
 
-    private boolean isMe(NodeInfo nodeInfo){
-        return nodeInfo.getLegalIdentities().get(0).getName().equals(me);
+    private Party party(String name) {
+        if (name == null) return null;
+        Party party = identities.wellKnownParty(CordaX500Name.parse(name));
+        if (party == null) throw new IllegalArgumentException("Unknown party " + name);
+        return party;
     }
 
-    private boolean isNetworkMap(NodeInfo nodeInfo){
-        return nodeInfo.getLegalIdentities().get(0).getName().getOrganisation().equals("Network Map Service");
+    @ExceptionHandler(IllegalArgumentException.class)
+    private ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
     }
 
     @Configuration
@@ -88,17 +120,17 @@ public class Controller {
 
     @GetMapping(value = "/addresses", produces = TEXT_PLAIN_VALUE)
     private String addresses() {
-        return proxy.nodeInfo().getAddresses().toString();
+        return identities.myInfo().getAddresses().toString();
     }
 
     @GetMapping(value = "/identities", produces = TEXT_PLAIN_VALUE)
     private String identities() {
-        return proxy.nodeInfo().getLegalIdentities().toString();
+        return identities.myInfo().getLegalIdentities().toString();
     }
 
     @GetMapping(value = "/platformversion", produces = TEXT_PLAIN_VALUE)
     private String platformVersion() {
-        return Integer.toString(proxy.nodeInfo().getPlatformVersion());
+        return Integer.toString(identities.myInfo().getPlatformVersion());
     }
 
     @GetMapping(value = "/peers", produces = APPLICATION_JSON_VALUE)
@@ -106,8 +138,7 @@ public class Controller {
         HashMap<String, List<String>> myMap = new HashMap<>();
 
         // Find all nodes that are not notaries, ourself, or the network map.
-        Stream<NodeInfo> filteredNodes = proxy.networkMapSnapshot().stream()
-                .filter(el -> !isNotary(el) && !isMe(el) && !isNetworkMap(el));
+        Stream<NodeInfo> filteredNodes = identities.peers().stream();
         // Get their names as strings
         List<String> nodeNames = filteredNodes.map(el -> el.getLegalIdentities().get(0).getName().toString())
                 .collect(Collectors.toList());
@@ -118,7 +149,7 @@ public class Controller {
 
     @GetMapping(value = "/notaries", produces = TEXT_PLAIN_VALUE)
     private String notaries() {
-        return proxy.notaryIdentities().toString();
+        return identities.notaries().toString();
     }
 
     @GetMapping(value = "/flows", produces = TEXT_PLAIN_VALUE)
@@ -126,9 +157,14 @@ public class Controller {
         return proxy.registeredFlows().toString();
     }
 
-    @GetMapping(value = "/states", produces = TEXT_PLAIN_VALUE)
-    private String states() {
-        return proxy.vaultQuery(ContractState.class).getStates().toString();
+    @GetMapping(value = "/states", produces = APPLICATION_JSON_VALUE)
+    private VaultPage<ContractState> states(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "200") int pageSize
+    ) {
+        PageSpecification paging = paging(page, pageSize);
+        return VaultPage.of(proxy.vaultQueryByWithPagingSpec(ContractState.class,
+                new QueryCriteria.VaultQueryCriteria(), paging), page, paging.getPageSize());
     }
 
     @GetMapping(value = "/me",produces = APPLICATION_JSON_VALUE)
@@ -139,121 +175,288 @@ public class Controller {
     }
 
     @GetMapping(value = "/cash", produces = APPLICATION_JSON_VALUE)
-    public List<StateAndRef<Cash>> getCash() {
+    public VaultPage<Cash> getCash(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "200") int pageSize,
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String currency,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "ASC") Sort.Direction direction
+    ) {
         // Filter by state type: Cash.
-        return proxy.vaultQuery(Cash.class).getStates();
+        return queryCash(page, pageSize, party(owner), currency, sort, direction);
     }
 
     /**
      * Displays all cash states owned by this node
      */
     @GetMapping(value = "/my-cash", produces = APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<StateAndRef<Cash>>> getMyCash() {
-        Party me = proxy.nodeInfo().getLegalIdentities().get(0);
-        List<StateAndRef<Cash>> myCash = proxy.vaultQuery(Cash.class).getStates().stream()
-                .filter(it -> it.getState().getData().getOwner().equals(me))
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(myCash);
+    public ResponseEntity<VaultPage<Cash>> getMyCash(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "200") int pageSize,
+            @RequestParam(required = false) String currency,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "ASC") Sort.Direction direction
+    ) {
+        Party me = identities.me();
+        return ResponseEntity.ok(queryCash(page, pageSize, me, currency, sort, direction));
+    }
+
+    private VaultPage<Cash> queryCash(int page, int pageSize, Party owner, String currency,
+                                      String sort, Sort.Direction direction) {
+        PageSpecification paging = paging(page, pageSize);
+        if (cache.isComplete()) {
+            return cache.cash(owner, currency, sort, direction, page, paging.getPageSize());
+        }
+        Vault.Page<Cash> result = proxy.vaultQueryBy(AssetQueries.cashCriteria(owner, currency, null),
+                paging, AssetQueries.cashSort(sort, direction), Cash.class);
+        return VaultPage.of(result, page, paging.getPageSize());
+    }
+
+    /**
+     * Cash totals and state counts by owner and currency, optionally for one owner or currency. Computed by vault
+     * aggregate queries, so no states are transferred.
+     */
+    @GetMapping(value = "/balances", produces = APPLICATION_JSON_VALUE)
+    public List<Position> getBalances(
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String currency
+    ) {
+        return AssetQueries.cashPositions(criteria -> proxy.vaultQueryByCriteria(criteria, Cash.class).getOtherResults(),
+                party(owner), currency);
     }
 
     @PostMapping(value = "/create-cash", produces = TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> issueCash(
+    public CompletableFuture<ResponseEntity<String>> issueCash(
             @RequestParam String currency,
             @RequestParam double amount,
-            @RequestParam String partyName
+            @RequestParam String partyName,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey
     ) throws IllegalArgumentException {
-        CordaX500Name partyX500Name = CordaX500Name.parse(partyName);
-        Party receiver = proxy.wellKnownPartyFromX500Name(partyX500Name);
-
-        try {
-            // Start the Flow. We block and wait for the flow to return.
-            SignedTransaction result = proxy.startTrackedFlowDynamic(
+        final String request = String.join("|", "create-cash", currency, Double.toString(amount), partyName,
+                Boolean.toString(async));
+        return idempotency.run(idempotencyKey, request, () -> {
+            if (batching.isEnabled() && !async) {
+                return respond(batching.issueCash(currency, amount, party(partyName)), Controller::describe);
+            }
+            return submit("IssueCashFlow", async, () -> proxy.startFlowDynamic(
                     IssueCashFlow.Initiator.class,
                     currency,
                     amount,
-                    receiver
-            ).getReturnValue().get();
-
-            // Return the response.
-            return ResponseEntity
-                    .status(HttpStatus.CREATED)
-                    .body("Transaction id "+ result.getId() +" committed to ledger.\n " + result.getTx().getOutput(0));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
-        }
+                    party(partyName)
+            ));
+        });
     }
 
     @GetMapping(value = "/stocks", produces = APPLICATION_JSON_VALUE)
-    public List<StateAndRef<Stock>> getStocks() {
+    public VaultPage<Stock> getStocks(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "200") int pageSize,
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String ticker,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "ASC") Sort.Direction direction
+    ) {
         // Filter by state type: Stock.
-        return proxy.vaultQuery(Stock.class).getStates();
+        return queryStocks(page, pageSize, party(owner), ticker, sort, direction);
     }
 
     /**
      * Displays all stock states owned by this node
      */
     @GetMapping(value = "/my-stocks", produces = APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<StateAndRef<Stock>>> getMyStocks() {
-        Party me = proxy.nodeInfo().getLegalIdentities().get(0);
-        List<StateAndRef<Stock>> myStocks = proxy.vaultQuery(Stock.class).getStates().stream()
-                .filter(it -> it.getState().getData().getOwner().equals(me))
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(myStocks);
+    public ResponseEntity<VaultPage<Stock>> getMyStocks(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "200") int pageSize,
+            @RequestParam(required = false) String ticker,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "ASC") Sort.Direction direction
+    ) {
+        Party me = identities.me();
+        return ResponseEntity.ok(queryStocks(page, pageSize, me, ticker, sort, direction));
+    }
+
+    private VaultPage<Stock> queryStocks(int page, int pageSize, Party owner, String ticker,
+                                         String sort, Sort.Direction direction) {
+        PageSpecification paging = paging(page, pageSize);
+        if (cache.isComplete()) {
+            return cache.stocks(owner, ticker, sort, direction, page, paging.getPageSize());
+        }
+        Vault.Page<Stock> result = proxy.vaultQueryBy(AssetQueries.stockCriteria(owner, ticker, null),
+                paging, AssetQueries.stockSort(sort, direction), Stock.class);
+        return VaultPage.of(result, page, paging.getPageSize());
+    }
+
+    /**
+     * Stock totals and state counts by owner and ticker, optionally for one owner or ticker. Computed by vault
+     * aggregate queries, so no states are transferred.
+     */
+    @GetMapping(value = "/positions", produces = APPLICATION_JSON_VALUE)
+    public List<Position> getPositions(
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String ticker
+    ) {
+        return AssetQueries.stockPositions(
+                criteria -> proxy.vaultQueryByCriteria(criteria, Stock.class).getOtherResults(), party(owner), ticker);
     }
 
     @PostMapping(value = "/create-stock", produces = TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> issueStock(
+    public CompletableFuture<ResponseEntity<String>> issueStock(
             @RequestParam String ticker,
             @RequestParam double amount,
-            @RequestParam String partyName
+            @RequestParam String partyName,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey
     ) throws IllegalArgumentException {
-        CordaX500Name partyX500Name = CordaX500Name.parse(partyName);
-        Party receiver = proxy.wellKnownPartyFromX500Name(partyX500Name);
-
-        try {
-            // Start the Flow. We block and wait for the flow to return.
-            SignedTransaction result = proxy.startTrackedFlowDynamic(
+        final String request = String.join("|", "create-stock", ticker, Double.toString(amount), partyName,
+                Boolean.toString(async));
+        return idempotency.run(idempotencyKey, request, () -> {
+            if (batching.isEnabled() && !async) {
+                return respond(batching.issueStock(ticker, amount, party(partyName)), Controller::describe);
+            }
+            return submit("IssueStockFlow", async, () -> proxy.startFlowDynamic(
                     IssueStockFlow.Initiator.class,
                     ticker,
                     amount,
-                    receiver
-            ).getReturnValue().get();
+                    party(partyName)
+            ));
+        });
+    }
 
-            // Return the response.
-            return ResponseEntity
-                    .status(HttpStatus.CREATED)
-                    .body("Transaction id "+ result.getId() +" committed to ledger.\n " + result.getTx().getOutput(0));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
-        }
+    /**
+     * Issues many Cash states at once. The body is a JSON list of {@code {currency, amount, partyName}} entries; one
+     * transaction is built for each receiving party and currency. A transaction that fails does not stop the others, and
+     * the response says which committed.
+     */
+    @PostMapping(value = "/create-cash/batch", consumes = APPLICATION_JSON_VALUE, produces = TEXT_PLAIN_VALUE)
+    public CompletableFuture<ResponseEntity<String>> issueCashBatch(
+            @RequestBody List<IssueRequest> requests,
+            @RequestParam(defaultValue = "false") boolean async
+    ) {
+        return submit("BatchIssueCashFlow", async, () -> proxy.startFlowDynamic(
+                BatchIssueCashFlow.Initiator.class,
+                requests.stream()
+                        .map(it -> new BatchIssueCashFlow.Entry(it.getCurrency(), it.getAmount(), party(it.getPartyName())))
+                        .collect(Collectors.toList())
+        ), Controller::describeBatch);
+    }
+
+    /**
+     * Issues many Stock states at once. The body is a JSON list of {@code {ticker, amount, partyName}} entries; one
+     * transaction is built for each receiving party and ticker. A transaction that fails does not stop the others, and
+     * the response says which committed.
+     */
+    @PostMapping(value = "/create-stock/batch", consumes = APPLICATION_JSON_VALUE, produces = TEXT_PLAIN_VALUE)
+    public CompletableFuture<ResponseEntity<String>> issueStockBatch(
+            @RequestBody List<IssueRequest> requests,
+            @RequestParam(defaultValue = "false") boolean async
+    ) {
+        return submit("BatchIssueStockFlow", async, () -> proxy.startFlowDynamic(
+                BatchIssueStockFlow.Initiator.class,
+                requests.stream()
+                        .map(it -> new BatchIssueStockFlow.Entry(it.getTicker(), it.getAmount(), party(it.getPartyName())))
+                        .collect(Collectors.toList())
+        ), Controller::describeBatch);
+    }
+
+    private static String describeBatch(List<BatchIssueFlow.Group> result) {
+        final long committed = result.stream().filter(BatchIssueFlow.Group::isCommitted).count();
+        return committed + " of " + result.size() + " transactions committed to ledger.\n " + result.stream()
+                .map(group -> group.isCommitted()
+                        ? group.getTransaction().getId() + ": " + group.getEntries().size() + " outputs"
+                        : group.getCode() + " for " + group.getReceiver().getName() + ": failed, "
+                                + group.getError())
+                .collect(Collectors.joining("\n "));
     }
 
     @PostMapping(value = "/transfer", produces = TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> transfer(
+    public CompletableFuture<ResponseEntity<String>> transfer(
             @RequestParam String currency,
             @RequestParam double cashAmount,
             @RequestParam String cashOwnerName,
             @RequestParam String ticker,
             @RequestParam double stockAmount,
-            @RequestParam String stockOwnerName
+            @RequestParam String stockOwnerName,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey
     ) throws IllegalArgumentException {
-        Party cashOwner = proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(cashOwnerName));
-        Party stockOwner = proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(stockOwnerName));
+        final String request = String.join("|", "transfer", currency, Double.toString(cashAmount), cashOwnerName,
+                ticker, Double.toString(stockAmount), stockOwnerName, Boolean.toString(async));
+        return idempotency.run(idempotencyKey, request, () -> {
+            final Cash cash = new Cash(currency, cashAmount, party(cashOwnerName));
+            final Stock stock = new Stock(ticker, stockAmount, party(stockOwnerName));
+            if (batching.isEnabled() && !async) {
+                return respond(batching.transfer(cash, stock), Controller::describe);
+            }
+            return submit("TransferFlow", async,
+                    () -> proxy.startFlowDynamic(TransferFlow.Initiator.class, cash, stock));
+        });
+    }
+
+    /**
+     * Shows the status of a flow started with {@code async=true}.
+     */
+    @GetMapping(value = "/flows/{id}", produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<FlowRegistry.FlowRecord<?>> flowStatus(@PathVariable UUID id) {
+        return flowRegistry.get(id)
+                .<ResponseEntity<FlowRegistry.FlowRecord<?>>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Starts a flow without holding a servlet thread while it runs.
+     *
+     * By default the response completes when the flow does. With {@code async} set, it completes straight away with
+     * {@code 202 Accepted} and the flow's id, and the outcome can be read from {@code /flows/{id}}.
+     *
+     * When batching is enabled, synchronous issues and transfers go through the {@link SettlementEngine} instead and
+     * may share their transaction with other requests. Asynchronous ones always start their own flow, since the
+     * caller needs its id.
+     *
+     * The issue and transfer endpoints accept an {@code Idempotency-Key} header; see {@link IdempotencyCache}.
+     */
+    private CompletableFuture<ResponseEntity<String>> submit(String flowName, boolean async,
+                                                             Supplier<FlowHandle<SignedTransaction>> start) {
+        return submit(flowName, async, start, Controller::describe);
+    }
+
+    private static String describe(SignedTransaction result) {
+        return "Transaction id "+ result.getId() +" committed to ledger.\n " + result.getTx().getOutput(0);
+    }
 
+    private <T> CompletableFuture<ResponseEntity<String>> submit(String flowName, boolean async,
+                                                                 Supplier<FlowHandle<T>> start,
+                                                                 Function<T, String> describe) {
+        final FlowRegistry.FlowRecord<T> record;
         try {
-            // Start the Flow. We block and wait for the flow to return.
-            SignedTransaction result = proxy.startTrackedFlowDynamic(
-                    TransferFlow.Initiator.class,
-                    new Cash(currency, cashAmount, cashOwner),
-                    new Stock(ticker, stockAmount, stockOwner)
-            ).getReturnValue().get();
+            record = flowRegistry.track(flowName, start.get());
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()));
+        }
+
+        if (async) {
+            AdmissionFilter.holdUntil(record.result());
+            IdempotencyCache.forgetIfFails(record.result());
+            return CompletableFuture.completedFuture(ResponseEntity
+                    .accepted()
+                    .location(URI.create("/flows/" + record.getId()))
+                    .body("Flow id " + record.getId() + " started.\n"));
+        }
 
+        return respond(record.result(), describe);
+    }
+
+    private static <T> CompletableFuture<ResponseEntity<String>> respond(CompletableFuture<T> outcome,
+                                                                        Function<T, String> describe) {
+        return outcome.handle((result, e) -> {
+            if (e != null) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(FlowRegistry.unwrap(e).getMessage());
+            }
             // Return the response.
             return ResponseEntity
                     .status(HttpStatus.CREATED)
-                    .body("Transaction id "+ result.getId() +" committed to ledger.\n " + result.getTx().getOutput(0));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
-        }
+                    .body(describe.apply(result));
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+package com.template.webserver;
+
+import com.dtcc.tril.workshop.queries.AssetQueries;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Streams vault contents as NDJSON for reconciliation: one line per state, holding its reference, notary, recorded
+ * time and the state itself.
+ *
+ * Each export is a snapshot of the unconsumed states as of the node time at which it starts, which the
+ * {@code X-Export-As-Of} header reports. The vault is read a page of {@code config.export.page-size} states at a time
+ * and each page is written out before the next is fetched, so the web server's memory use does not grow with the
+ * vault. Pages are taken from every state recorded by the snapshot time, whatever its status now, so states consumed
+ * during the export neither shift later pages nor go missing; those consumed before the snapshot are skipped. The
+ * response is gzipped when the client accepts it.
+ */
+@RestController
+@RequestMapping("/export")
+public class ExportController {
+    static final String NDJSON = "application/x-ndjson";
+    // A total order, so that no state appears on two pages or none.
+    private static final Sort ORDER = new Sort(Arrays.asList(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID),
+                    Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX),
+                    Sort.Direction.ASC)));
+
+    private final CordaRPCOps proxy;
+    private final IdentityCache identities;
+    private final ObjectMapper mapper;
+
+    @Value("${config.export.page-size:1000}")
+    private int pageSize;
+
+    public ExportController(NodeRPCConnection rpc, IdentityCache identities, ObjectMapper mapper) {
+        this.proxy = rpc.proxy;
+        this.identities = identities;
+        this.mapper = mapper;
+    }
+
+    @GetMapping(value = "/states", produces = NDJSON)
+    public void exportStates(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        export(ContractState.class, new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL), request, response);
+    }
+
+    @GetMapping(value = "/cash", produces = NDJSON)
+    public void exportCash(
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String currency,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        export(Cash.class, AssetQueries.cashCriteria(Vault.StateStatus.ALL, party(owner), currency, null),
+                request, response);
+    }
+
+    @GetMapping(value = "/stocks", produces = NDJSON)
+    public void exportStocks(
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String ticker,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        export(Stock.class, AssetQueries.stockCriteria(Vault.StateStatus.ALL, party(owner), ticker, null),
+                request, response);
+    }
+
+    private Party party(String name) {
+        if (name == null) return null;
+        Party party = identities.wellKnownParty(CordaX500Name.parse(name));
+        if (party == null) throw new IllegalArgumentException("Unknown party " + name);
+        return party;
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    private ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    /**
+     * Writes every state matching {@code filter} that was unconsumed at the start of the export. Runs on the request
+     * thread, like {@code /import}, so a long export is not cut short by the async request timeout.
+     */
+    private <T extends ContractState> void export(Class<T> type, QueryCriteria filter,
+                                                  HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        final Instant asOf = proxy.currentNodeTime();
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL)
+                .withTimeCondition(new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED,
+                        new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.LESS_THAN_OR_EQUAL, asOf)))
+                .and(filter);
+
+        response.setHeader("X-Export-As-Of", asOf.toString());
+        try (JsonGenerator generator = ndjson(mapper, request, response)) {
+            for (int page = DEFAULT_PAGE_NUM; ; page++) {
+                final Vault.Page<T> result = proxy.vaultQueryBy(criteria, new PageSpecification(page, pageSize),
+                        ORDER, type);
+                final List<StateAndRef<T>> states = result.getStates();
+                final List<Vault.StateMetadata> metadata = result.getStatesMetadata();
+                for (int i = 0; i < states.size(); i++) {
+                    final Instant consumed = metadata.get(i).getConsumedTime();
+                    if (consumed != null && !consumed.isAfter(asOf)) continue;
+                    write(generator, states.get(i), metadata.get(i));
+                }
+                generator.flush();
+                if (states.size() < pageSize) break;
+            }
+        }
+    }
+
+    private static void write(JsonGenerator generator, StateAndRef<?> state, Vault.StateMetadata metadata)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("ref", state.getRef().toString());
+        generator.writeStringField("type", state.getState().getData().getClass().getSimpleName());
+        generator.writeStringField("notary", state.getState().getNotary().getName().toString());
+        generator.writeStringField("recordedTime", metadata.getRecordedTime().toString());
+        generator.writeObjectField("state", state.getState().getData());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /** Starts an NDJSON response, gzipped if the client accepts it. Each value must be followed by a newline. */
+    static JsonGenerator ndjson(ObjectMapper mapper, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType(NDJSON);
+        OutputStream out = response.getOutputStream();
+        if (acceptsGzip(request)) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            // Sync flushes let each page reach the client as it is written.
+            out = new GZIPOutputStream(out, 8192, true);
+        }
+        final JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        final String accepted = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return accepted != null && accepted.toLowerCase(Locale.ROOT).contains("gzip");
+    }
+}
@@ -0,0 +1,58 @@
+package com.template.webserver;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One event in the life of a flow, pushed over the WebSocket channel: {@code STARTED} once, then a {@code PROGRESS}
+ * event per progress tracker step, then {@code COMPLETED} or {@code FAILED}.
+ */
+public class FlowEvent {
+    public enum Type { STARTED, PROGRESS, COMPLETED, FAILED }
+
+    private final String flowId;
+    private final String flowName;
+    private final Type type;
+    private final String timestamp = Instant.now().toString();
+    private String correlationId;
+    private String step;
+    private List<String> transactionIds;
+    private String error;
+
+    private FlowEvent(FlowRegistry.FlowRecord<?> record, Type type) {
+        this.flowId = record.getId().toString();
+        this.flowName = record.getFlowName();
+        this.type = type;
+    }
+
+    /** Acknowledges a request, echoing the {@code correlation-id} header it was sent with. */
+    static FlowEvent started(FlowRegistry.FlowRecord<?> record, String correlationId) {
+        FlowEvent event = new FlowEvent(record, Type.STARTED);
+        event.correlationId = correlationId;
+        return event;
+    }
+
+    static FlowEvent progress(FlowRegistry.FlowRecord<?> record, String step) {
+        FlowEvent event = new FlowEvent(record, Type.PROGRESS);
+        event.step = step;
+        return event;
+    }
+
+    /** The outcome of a finished flow. */
+    static FlowEvent finished(FlowRegistry.FlowRecord<?> record) {
+        boolean completed = record.getStatus() == FlowRegistry.Status.COMPLETED;
+        FlowEvent event = new FlowEvent(record, completed ? Type.COMPLETED : Type.FAILED);
+        event.transactionIds = record.getTransactionIds();
+        event.error = record.getError();
+        return event;
+    }
+
+    public String getFlowId() { return flowId; }
+    public String getFlowName() { return flowName; }
+    public Type getType() { return type; }
+    public String getTimestamp() { return timestamp; }
+    public String getCorrelationId() { return correlationId; }
+    public String getStep() { return step; }
+    public List<String> getTransactionIds() { return transactionIds; }
+    public String getError() { return error; }
+}
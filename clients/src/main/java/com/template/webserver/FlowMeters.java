@@ -0,0 +1,35 @@
+package com.template.webserver;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Micrometer counters and timers for the flows started through the REST API, tagged by flow name:
+ * {@code flows.started}, {@code flows.completed}, {@code flows.failed} and {@code flows.duration}, the last also
+ * tagged with the outcome.
+ *
+ * Request timings for every endpoint come from Spring Boot's {@code http.server.requests} timer; the time flows spend
+ * in each step is published by the node over JMX.
+ */
+@Component
+public class FlowMeters {
+    private final MeterRegistry registry;
+
+    public FlowMeters(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** Counts a flow as started and records its outcome and duration when {@code result} completes. */
+    public <T> CompletableFuture<T> record(String flowName, CompletableFuture<T> result) {
+        registry.counter("flows.started", "flow", flowName).increment();
+        final Timer.Sample sample = Timer.start(registry);
+        return result.whenComplete((value, e) -> {
+            final String outcome = e == null ? "completed" : "failed";
+            registry.counter("flows." + outcome, "flow", flowName).increment();
+            sample.stop(registry.timer("flows.duration", "flow", flowName, "outcome", outcome));
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package com.template.webserver;
+
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers the flows started through the REST API so that callers can fire a flow and poll for its outcome.
+ *
+ * Nothing here blocks: each flow's {@code CordaFuture} is adapted to a {@link CompletableFuture} that updates the
+ * record when the node reports the result. Finished flows are forgotten once they are older than
+ * {@code config.flows.retention-seconds} and the registry holds more than {@code config.flows.max-tracked} records.
+ */
+@Component
+public class FlowRegistry {
+    public enum Status { RUNNING, COMPLETED, FAILED }
+
+    private final Map<UUID, FlowRecord<?>> flows = new ConcurrentHashMap<>();
+    private final FlowMeters meters;
+
+    @Value("${config.flows.retention-seconds:600}")
+    private long retentionSeconds;
+    @Value("${config.flows.max-tracked:100000}")
+    private int maxTracked;
+
+    public FlowRegistry(FlowMeters meters) {
+        this.meters = meters;
+    }
+
+    /** Starts tracking a flow that has just been submitted to the node. */
+    public <T> FlowRecord<T> track(String flowName, FlowHandle<T> handle) {
+        if (flows.size() >= maxTracked) evictFinished();
+
+        FlowRecord<T> record = new FlowRecord<>(handle.getId().getUuid(), flowName,
+                meters.record(flowName, handle.getReturnValue().toCompletableFuture()));
+        flows.put(record.id, record);
+        return record;
+    }
+
+    public Optional<FlowRecord<?>> get(UUID id) {
+        return Optional.ofNullable(flows.get(id));
+    }
+
+    private void evictFinished() {
+        Instant cutoff = Instant.now().minus(Duration.ofSeconds(retentionSeconds));
+        flows.values().removeIf(record -> record.finishedAt != null && record.finishedAt.isBefore(cutoff));
+    }
+
+    /** The state of one flow, as shown by {@code /flows/{id}}. */
+    public static class FlowRecord<T> {
+        private final UUID id;
+        private final String flowName;
+        private final Instant startedAt = Instant.now();
+        private final CompletableFuture<T> result;
+        private volatile Status status = Status.RUNNING;
+        private volatile Instant finishedAt;
+        private volatile List<String> transactionIds;
+        private volatile String error;
+
+        FlowRecord(UUID id, String flowName, CompletableFuture<T> returnValue) {
+            this.id = id;
+            this.flowName = flowName;
+            this.result = returnValue.whenComplete((value, e) -> {
+                if (e == null) {
+                    transactionIds = transactions(value).stream()
+                            .map(stx -> stx.getId().toString())
+                            .collect(Collectors.toList());
+                    status = Status.COMPLETED;
+                } else {
+                    error = unwrap(e).getMessage();
+                    status = Status.FAILED;
+                }
+                finishedAt = Instant.now();
+            });
+        }
+
+        public UUID getId() { return id; }
+        public String getFlowName() { return flowName; }
+        public Status getStatus() { return status; }
+        public Instant getStartedAt() { return startedAt; }
+        public Instant getFinishedAt() { return finishedAt; }
+        public List<String> getTransactionIds() { return transactionIds; }
+        public String getError() { return error; }
+
+        /** Completes with the flow's return value, or exceptionally with the flow's error. */
+        public CompletableFuture<T> result() { return result; }
+    }
+
+    /** The transactions in a flow's return value, which is either one transaction or a list of them. */
+    static List<SignedTransaction> transactions(Object value) {
+        if (value instanceof SignedTransaction) {
+            return Collections.singletonList((SignedTransaction) value);
+        } else if (value instanceof Collection) {
+            return ((Collection<?>) value).stream()
+                    .filter(SignedTransaction.class::isInstance)
+                    .map(SignedTransaction.class::cast)
+                    .collect(Collectors.toList());
+        }
+        return Collections.emptyList();
+    }
+
+    static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+}
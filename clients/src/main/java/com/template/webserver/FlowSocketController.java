@@ -0,0 +1,141 @@
+package com.template.webserver;
+
+import com.dtcc.tril.workshop.flows.IssueCashFlow;
+import com.dtcc.tril.workshop.flows.IssueStockFlow;
+import com.dtcc.tril.workshop.flows.TransferFlow;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowProgressHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.stereotype.Controller;
+import rx.Subscription;
+
+import java.util.function.Supplier;
+
+/**
+ * Starts flows over STOMP and pushes their progress instead of holding a request open until they finish.
+ *
+ * A client subscribes to {@code /user/queue/flows} and then sends a request to {@code /app/flows/issue-cash},
+ * {@code /app/flows/issue-stock} or {@code /app/flows/transfer}, optionally with a {@code correlation-id} header.
+ * Every {@link FlowEvent} of the flow is sent to that client's queue, the first echoing the correlation id, and also
+ * to {@code /topic/flows/{id}} for anyone else following it. Flows are admitted by the same {@link AdmissionFilter}
+ * bulkheads as the REST endpoints that start them, each holding its place until it finishes. Rejected requests,
+ * including those refused for want of capacity, are reported on {@code /user/queue/errors}.
+ */
+@Controller
+public class FlowSocketController {
+    private static final Logger logger = LoggerFactory.getLogger(FlowSocketController.class);
+    private static final String USER_EVENTS = "/queue/flows";
+    private static final String FLOW_EVENTS = "/topic/flows/";
+
+    private final CordaRPCOps proxy;
+    private final SimpMessagingTemplate messaging;
+    private final FlowRegistry flowRegistry;
+    private final IdentityCache identities;
+    private final AdmissionFilter admission;
+
+    public FlowSocketController(NodeRPCConnection rpc, SimpMessagingTemplate messaging, FlowRegistry flowRegistry,
+                                IdentityCache identities, AdmissionFilter admission) {
+        this.proxy = rpc.proxy;
+        this.messaging = messaging;
+        this.flowRegistry = flowRegistry;
+        this.identities = identities;
+        this.admission = admission;
+    }
+
+    @MessageMapping("/flows/issue-cash")
+    public void issueCash(IssueRequest request, SimpMessageHeaderAccessor headers,
+                          @Header(name = "correlation-id", required = false) String correlationId) {
+        start(AdmissionFilter.EndpointClass.ISSUE, "IssueCashFlow", headers.getSessionId(), correlationId,
+                () -> proxy.startTrackedFlowDynamic(
+                        IssueCashFlow.Initiator.class,
+                        request.getCurrency(),
+                        request.getAmount(),
+                        party(request.getPartyName())
+                ));
+    }
+
+    @MessageMapping("/flows/issue-stock")
+    public void issueStock(IssueRequest request, SimpMessageHeaderAccessor headers,
+                           @Header(name = "correlation-id", required = false) String correlationId) {
+        start(AdmissionFilter.EndpointClass.ISSUE, "IssueStockFlow", headers.getSessionId(), correlationId,
+                () -> proxy.startTrackedFlowDynamic(
+                        IssueStockFlow.Initiator.class,
+                        request.getTicker(),
+                        request.getAmount(),
+                        party(request.getPartyName())
+                ));
+    }
+
+    @MessageMapping("/flows/transfer")
+    public void transfer(TransferRequest request, SimpMessageHeaderAccessor headers,
+                         @Header(name = "correlation-id", required = false) String correlationId) {
+        start(AdmissionFilter.EndpointClass.TRANSFER, "TransferFlow", headers.getSessionId(), correlationId,
+                () -> proxy.startTrackedFlowDynamic(
+                        TransferFlow.Initiator.class,
+                        new Cash(request.getCurrency(), request.getCashAmount(), party(request.getCashOwnerName())),
+                        new Stock(request.getTicker(), request.getStockAmount(), party(request.getStockOwnerName()))
+                ));
+    }
+
+    @MessageExceptionHandler
+    @SendToUser(destinations = "/queue/errors", broadcast = false)
+    public String rejected(Exception e) {
+        return e.getMessage();
+    }
+
+    /**
+     * Starts a flow, once admitted, and forwards its progress and outcome. Nothing blocks once it is admitted: progress
+     * arrives on the RPC client's observable and the outcome on the flow's return value.
+     */
+    private <T> void start(AdmissionFilter.EndpointClass endpointClass, String flowName, String sessionId,
+                           String correlationId, Supplier<FlowProgressHandle<T>> start) {
+        admission.admit(endpointClass, () -> {
+            final FlowProgressHandle<T> handle = start.get();
+            final FlowRegistry.FlowRecord<T> record = flowRegistry.track(flowName, handle);
+            publish(sessionId, FlowEvent.started(record, correlationId));
+
+            final Subscription progress = handle.getProgress().subscribe(
+                    step -> publish(sessionId, FlowEvent.progress(record, step)),
+                    // A failed flow is reported from its return value below.
+                    e -> logger.debug("Progress of flow {} ended with an error", record.getId(), e));
+            return record.result().whenComplete((result, e) -> {
+                progress.unsubscribe();
+                handle.close();
+                publish(sessionId, FlowEvent.finished(record));
+            });
+        });
+    }
+
+    private void publish(String sessionId, FlowEvent event) {
+        messaging.convertAndSend(FLOW_EVENTS + event.getFlowId(), event);
+        messaging.convertAndSendToUser(sessionId, USER_EVENTS, event, sessionHeaders(sessionId));
+    }
+
+    /** Addresses a user destination by WebSocket session, since clients do not authenticate. */
+    private static MessageHeaders sessionHeaders(String sessionId) {
+        final SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        return headers.getMessageHeaders();
+    }
+
+    private Party party(String name) {
+        if (name == null) throw new IllegalArgumentException("A party name is required");
+        Party party = identities.wellKnownParty(CordaX500Name.parse(name));
+        if (party == null) throw new IllegalArgumentException("Unknown party " + name);
+        return party;
+    }
+}
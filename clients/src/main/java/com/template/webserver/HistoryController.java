@@ -0,0 +1,221 @@
+package com.template.webserver;
+
+import com.dtcc.tril.workshop.queries.AssetQueries;
+import com.dtcc.tril.workshop.states.Asset;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteria.TimeInstantType;
+import net.corda.core.node.services.vault.Sort;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import static com.template.webserver.ExportController.NDJSON;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Trade history: the Cash or Stock states recorded, or consumed, between {@code from} and {@code to}, streamed as
+ * NDJSON oldest first. {@code status} is ALL by default, so states that have since been spent are included.
+ *
+ * Owner, currency and ticker filters and the time range are pushed down to indexed columns. {@code counterparty}
+ * keeps only states whose previous owner it was, which the schema does not record, so it is applied as rows stream
+ * past. A transfer from A to B therefore appears as a state owned by B with counterparty A.
+ *
+ * Rows are read by keyset pagination on time rather than by page number, so a scan of a year of history costs the
+ * same per page at the end as at the start and is not disturbed by states recorded while it runs. Every row carries a
+ * {@code cursor}; passing the last one received as {@code after} resumes the scan just past it, for example after
+ * stopping at {@code limit} rows or losing the connection.
+ */
+@RestController
+@RequestMapping("/history")
+public class HistoryController {
+    private final CordaRPCOps proxy;
+    private final IdentityCache identities;
+    private final ObjectMapper mapper;
+
+    @Value("${config.history.page-size:500}")
+    private int pageSize;
+
+    public HistoryController(NodeRPCConnection rpc, IdentityCache identities, ObjectMapper mapper) {
+        this.proxy = rpc.proxy;
+        this.identities = identities;
+        this.mapper = mapper;
+    }
+
+    @GetMapping(value = "/cash", produces = NDJSON)
+    public void cashHistory(
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String counterparty,
+            @RequestParam(required = false) String currency,
+            @RequestParam(defaultValue = "ALL") Vault.StateStatus status,
+            @RequestParam(defaultValue = "RECORDED") TimeInstantType time,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "0") long limit,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        final Vault.StateStatus effective = effectiveStatus(status, time);
+        history(Cash.class, AssetQueries.cashCriteria(effective, party(owner), currency, null), effective,
+                new Scan(time, from, to, after, limit, party(counterparty)), request, response);
+    }
+
+    @GetMapping(value = "/stocks", produces = NDJSON)
+    public void stockHistory(
+            @RequestParam(required = false) String owner,
+            @RequestParam(required = false) String counterparty,
+            @RequestParam(required = false) String ticker,
+            @RequestParam(defaultValue = "ALL") Vault.StateStatus status,
+            @RequestParam(defaultValue = "RECORDED") TimeInstantType time,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "0") long limit,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        final Vault.StateStatus effective = effectiveStatus(status, time);
+        history(Stock.class, AssetQueries.stockCriteria(effective, party(owner), ticker, null), effective,
+                new Scan(time, from, to, after, limit, party(counterparty)), request, response);
+    }
+
+    private Party party(String name) {
+        if (name == null) return null;
+        Party party = identities.wellKnownParty(CordaX500Name.parse(name));
+        if (party == null) throw new IllegalArgumentException("Unknown party " + name);
+        return party;
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    private ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    // Only consumed states have a consumed time.
+    private static Vault.StateStatus effectiveStatus(Vault.StateStatus status, TimeInstantType time) {
+        return time == TimeInstantType.CONSUMED ? Vault.StateStatus.CONSUMED : status;
+    }
+
+    /** The range, position and limits of one scan. */
+    private class Scan {
+        private final TimeInstantType time;
+        private final Instant to;
+        private final long limit;
+        private final Party counterparty;
+        // The keyset position: rows at exactly this time are ordered by state ref, and the first {@code skip} of
+        // them have already been returned.
+        private Instant position;
+        private int skip;
+
+        Scan(TimeInstantType time, String from, String to, String after, long limit, Party counterparty) {
+            this.time = time;
+            this.to = to == null ? proxy.currentNodeTime() : instant(to, "to");
+            this.limit = limit;
+            this.counterparty = counterparty;
+            this.position = from == null ? Instant.EPOCH : instant(from, "from");
+            if (after != null) {
+                final int separator = after.lastIndexOf('~');
+                if (separator < 0) throw new IllegalArgumentException("Malformed cursor " + after);
+                final Instant cursor = instant(after.substring(0, separator), "after");
+                if (!cursor.isBefore(position)) {
+                    this.position = cursor;
+                    try {
+                        this.skip = Integer.parseInt(after.substring(separator + 1));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Malformed cursor " + after);
+                    }
+                }
+            }
+        }
+
+        Instant timeOf(Vault.StateMetadata metadata) {
+            return time == TimeInstantType.CONSUMED ? metadata.getConsumedTime() : metadata.getRecordedTime();
+        }
+    }
+
+    private static Instant instant(String value, String name) {
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be an ISO-8601 instant such as 2020-01-31T00:00:00Z");
+        }
+    }
+
+    /** Runs on the request thread, like the exports, so a long scan is not cut short by the async request timeout. */
+    private <T extends Asset> void history(Class<T> type, QueryCriteria filter, Vault.StateStatus status, Scan scan,
+                                           HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        final Sort order = AssetQueries.historySort(scan.time);
+        long written = 0;
+        try (JsonGenerator generator = ExportController.ndjson(mapper, request, response)) {
+            while (true) {
+                // Rows before the position are excluded by the time range; rows at it that were already returned are
+                // fetched again and skipped, which costs at most one transaction's outputs.
+                final QueryCriteria criteria = AssetQueries.during(filter, status, scan.time, scan.position, scan.to);
+                final Vault.Page<T> page = proxy.vaultQueryBy(criteria,
+                        new PageSpecification(DEFAULT_PAGE_NUM, scan.skip + pageSize), order, type);
+                final List<StateAndRef<T>> states = page.getStates();
+                final List<Vault.StateMetadata> metadata = page.getStatesMetadata();
+
+                Instant last = scan.position;
+                int tied = scan.skip;
+                for (int i = scan.skip; i < states.size(); i++) {
+                    final Instant at = scan.timeOf(metadata.get(i));
+                    if (at.equals(last)) {
+                        tied++;
+                    } else {
+                        last = at;
+                        tied = 1;
+                    }
+                    final T state = states.get(i).getState().getData();
+                    if (scan.counterparty != null && !state.getObservers().contains(scan.counterparty)) continue;
+
+                    write(generator, states.get(i), metadata.get(i), at + "~" + tied);
+                    if (++written == scan.limit) return;
+                }
+                generator.flush();
+                if (states.size() < scan.skip + pageSize) return;
+                scan.position = last;
+                scan.skip = tied;
+            }
+        }
+    }
+
+    private static void write(JsonGenerator generator, StateAndRef<?> state, Vault.StateMetadata metadata,
+                              String cursor) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("cursor", cursor);
+        generator.writeStringField("ref", state.getRef().toString());
+        generator.writeStringField("status", metadata.getStatus().name());
+        generator.writeStringField("recordedTime", metadata.getRecordedTime().toString());
+        if (metadata.getConsumedTime() != null) {
+            generator.writeStringField("consumedTime", metadata.getConsumedTime().toString());
+        }
+        generator.writeObjectField("state", state.getState().getData());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+}
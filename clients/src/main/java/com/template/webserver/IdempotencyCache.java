@@ -0,0 +1,133 @@
+package com.template.webserver;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Makes flow-starting requests that carry an {@code Idempotency-Key} header safe to retry.
+ *
+ * The first request with a key starts its flow; a retry with the same key, while that flow runs or after it has
+ * succeeded, gets the same response instead of starting another one, marked with {@code Idempotent-Replayed}. A key
+ * whose flow failed, or could not be started, is forgotten so that the retry can try again; that includes a flow
+ * started with {@code async=true}, whose {@code 202} is forgotten when the flow later fails (see
+ * {@link #forgetIfFails}). Reusing a key for a different request is rejected with {@code 422}.
+ *
+ * Keys are remembered for {@code config.idempotency.ttl-seconds}, and at most {@code config.idempotency.max-keys} of
+ * them at once; beyond that the oldest finished ones are forgotten first. The keys live in this web server only:
+ * Corda 4.5 has no {@code startFlowWithClientId}, so the node cannot deduplicate starts itself, and a retry sent to a
+ * different web server is not recognised.
+ */
+@Component
+public class IdempotencyCache {
+    public static final String HEADER = "Idempotency-Key";
+    private static final String REPLAYED = "Idempotent-Replayed";
+
+    // Forgets the key being started on this thread, for {@link #forgetIfFails}; set only while {@code start} runs.
+    private static final ThreadLocal<Runnable> FORGET = new ThreadLocal<>();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    @Value("${config.idempotency.ttl-seconds:86400}")
+    private long ttlSeconds;
+    @Value("${config.idempotency.max-keys:100000}")
+    private int maxKeys;
+
+    /**
+     * Starts the request with {@code start} unless a request with the same {@code key} has already started it.
+     * {@code request} describes the request, so that a key reused for something else is caught.
+     */
+    public CompletableFuture<ResponseEntity<String>> run(String key, String request,
+                                                         Supplier<CompletableFuture<ResponseEntity<String>>> start) {
+        if (key == null) return start.get();
+
+        final Instant now = Instant.now();
+        final Entry fresh = new Entry(request, now);
+        final Entry entry = entries.compute(key, (k, current) ->
+                current == null || current.expired(now, Duration.ofSeconds(ttlSeconds)) ? fresh : current);
+
+        if (entry != fresh) {
+            if (!entry.request.equals(request)) {
+                return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                        .body(HEADER + " " + key + " was already used for a different request\n"));
+            }
+            return entry.response.thenApply(response -> ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .header(REPLAYED, "true")
+                    .body(response.getBody()));
+        }
+
+        if (entries.size() > maxKeys) evict(now);
+        FORGET.set(() -> entries.remove(key, fresh));
+        try {
+            start.get().whenComplete((response, e) -> {
+                if (e != null || !response.getStatusCode().is2xxSuccessful()) entries.remove(key, fresh);
+                if (e != null) fresh.response.completeExceptionally(e);
+                else fresh.response.complete(response);
+            });
+        } catch (RuntimeException e) {
+            entries.remove(key, fresh);
+            fresh.response.completeExceptionally(e);
+            throw e;
+        } finally {
+            FORGET.remove();
+        }
+        return fresh.response;
+    }
+
+    /**
+     * Forgets the key of the request being started, if any, should {@code flow} fail. For requests whose response
+     * does not wait for their flow, such as those with {@code async=true}: their {@code 202} succeeds either way, and
+     * without this a retry would replay it rather than start the flow again.
+     */
+    static void forgetIfFails(CompletableFuture<?> flow) {
+        final Runnable forget = FORGET.get();
+        if (forget != null) flow.whenComplete((result, e) -> {
+            if (e != null) forget.run();
+        });
+    }
+
+    /** Forgets expired keys and, if that is not enough, the oldest finished ones, down to 90% of the limit. */
+    private void evict(Instant now) {
+        if (!evicting.compareAndSet(false, true)) return;
+        try {
+            final Duration ttl = Duration.ofSeconds(ttlSeconds);
+            entries.values().removeIf(entry -> entry.expired(now, ttl));
+            final long excess = entries.size() - (long) maxKeys * 9 / 10;
+            if (excess <= 0) return;
+            entries.entrySet().stream()
+                    .filter(entry -> entry.getValue().response.isDone())
+                    .sorted(Comparator.comparing(entry -> entry.getValue().createdAt))
+                    .limit(excess)
+                    .forEach(entry -> entries.remove(entry.getKey(), entry.getValue()));
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static class Entry {
+        private final String request;
+        private final Instant createdAt;
+        private final CompletableFuture<ResponseEntity<String>> response = new CompletableFuture<>();
+
+        Entry(String request, Instant createdAt) {
+            this.request = request;
+            this.createdAt = createdAt;
+        }
+
+        boolean expired(Instant now, Duration ttl) {
+            return createdAt.plus(ttl).isBefore(now);
+        }
+    }
+}
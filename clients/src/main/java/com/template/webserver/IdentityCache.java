@@ -0,0 +1,143 @@
+package com.template.webserver;
+
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import rx.Subscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The network map as seen by our node, held in memory so that party lookups do not each cost an RPC call.
+ *
+ * It is seeded from the {@code networkMapFeed} snapshot and kept current from its updates. Notaries are fixed by the
+ * network parameters, so they are only read when seeding. A name that is not on the map yet falls back to the node.
+ * Changes made while the RPC connection was down are lost, so the map is read afresh whenever it comes back.
+ */
+@Component
+public class IdentityCache {
+    private static final Logger logger = LoggerFactory.getLogger(IdentityCache.class);
+
+    private final NodeRPCConnection rpc;
+    private final CordaRPCOps proxy;
+    private final Map<CordaX500Name, NodeInfo> nodes = new ConcurrentHashMap<>();
+    private final Map<CordaX500Name, Party> parties = new ConcurrentHashMap<>();
+    private volatile List<Party> notaries;
+    private volatile NodeInfo myInfo;
+    private Subscription subscription;
+
+    public IdentityCache(NodeRPCConnection rpc) {
+        this.rpc = rpc;
+        this.proxy = rpc.proxy;
+    }
+
+    @PostConstruct
+    public void start() {
+        seed();
+        rpc.addReconnectListener(() -> {
+            logger.info("Reseeding the identity cache after the node connection came back");
+            seed();
+        });
+    }
+
+    /** Reads the network map afresh, dropping nodes that have left it, and follows its changes from there. */
+    private synchronized void seed() {
+        if (subscription != null) subscription.unsubscribe();
+        myInfo = proxy.nodeInfo();
+        notaries = Collections.unmodifiableList(proxy.notaryIdentities());
+
+        DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> feed = proxy.networkMapFeed();
+        Set<CordaX500Name> current = feed.getSnapshot().stream()
+                .map(node -> node.getLegalIdentities().get(0).getName())
+                .collect(Collectors.toSet());
+        new ArrayList<>(nodes.values()).stream()
+                .filter(node -> !current.contains(node.getLegalIdentities().get(0).getName()))
+                .forEach(this::remove);
+        feed.getSnapshot().forEach(this::add);
+        subscription = feed.getUpdates().subscribe(change -> {
+            if (change instanceof NetworkMapCache.MapChange.Removed) {
+                remove(change.getNode());
+            } else {
+                if (change instanceof NetworkMapCache.MapChange.Modified) {
+                    remove(((NetworkMapCache.MapChange.Modified) change).getPreviousNode());
+                }
+                add(change.getNode());
+            }
+        }, e -> logger.error("Network map feed failed; identities may be stale", e));
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (subscription != null) subscription.unsubscribe();
+    }
+
+    public NodeInfo myInfo() {
+        return myInfo;
+    }
+
+    public Party me() {
+        return myInfo.getLegalIdentities().get(0);
+    }
+
+    /** The party with the given name, or null if neither the network map nor the node knows it. */
+    public Party wellKnownParty(CordaX500Name name) {
+        Party party = parties.get(name);
+        if (party == null) {
+            party = proxy.wellKnownPartyFromX500Name(name);
+            if (party != null) parties.put(name, party);
+        }
+        return party;
+    }
+
+    public List<Party> notaries() {
+        return notaries;
+    }
+
+    public boolean isNotary(NodeInfo node) {
+        return node.getLegalIdentities().stream().anyMatch(notaries::contains);
+    }
+
+    /** Every node on the network except notaries, the network map and ourselves. */
+    public List<NodeInfo> peers() {
+        return nodes.values().stream()
+                .filter(node -> !isNotary(node) && !isMe(node) && !isNetworkMap(node))
+                .collect(Collectors.toList());
+    }
+
+    private boolean isMe(NodeInfo node) {
+        return node.getLegalIdentities().get(0).getName().equals(me().getName());
+    }
+
+    private static boolean isNetworkMap(NodeInfo node) {
+        return node.getLegalIdentities().get(0).getName().getOrganisation().equals("Network Map Service");
+    }
+
+    private void add(NodeInfo node) {
+        nodes.put(node.getLegalIdentities().get(0).getName(), node);
+        for (Party party : node.getLegalIdentities()) {
+            parties.put(party.getName(), party);
+        }
+        if (isMe(node)) myInfo = node;
+    }
+
+    private void remove(NodeInfo node) {
+        nodes.remove(node.getLegalIdentities().get(0).getName());
+        for (Party party : node.getLegalIdentities()) {
+            parties.remove(party.getName(), party);
+        }
+    }
+}
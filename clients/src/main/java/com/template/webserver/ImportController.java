@@ -0,0 +1,337 @@
+package com.template.webserver;
+
+import com.dtcc.tril.workshop.flows.BatchIssueCashFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueStockFlow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk loads Cash and Stock positions from a stream of CSV or NDJSON rows.
+ *
+ * CSV rows are {@code type,code,amount,partyName}, where type is {@code cash} or {@code stock} and fields containing
+ * commas, such as party names, are double-quoted; a first line starting with {@code type} is taken as a header.
+ * NDJSON rows are the objects accepted by {@code /create-cash/batch} and {@code /create-stock/batch}.
+ *
+ * The body is read a line at a time and rows are issued in batches of {@code config.import.batch-size}, with at most
+ * {@code config.import.max-in-flight} batches running at once. Reading stops while that many are running, so a
+ * client sending faster than the node can issue is held back by TCP rather than buffered here. The response is an
+ * NDJSON stream of one result per row, in completion order, each naming its 1-based line number. The batch flows
+ * report which of their transactions, one per receiver and code, committed; the rows of one that did not are split in
+ * half and retried, so a bad row fails alone rather than taking its group with it. Rows that did commit are never
+ * resubmitted. If a batch flow fails outright, for instance because the node connection dropped, it is not known
+ * which of its rows were issued, so they are all reported as failed without being retried.
+ */
+@RestController
+public class ImportController {
+    private static final Logger logger = LoggerFactory.getLogger(ImportController.class);
+    private static final String CSV = "text/csv";
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final CordaRPCOps proxy;
+    private final FlowRegistry flowRegistry;
+    private final IdentityCache identities;
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Value("${config.import.batch-size:500}")
+    private int batchSize;
+    @Value("${config.import.max-in-flight:8}")
+    private int maxInFlight;
+
+    public ImportController(NodeRPCConnection rpc, FlowRegistry flowRegistry, IdentityCache identities) {
+        this.proxy = rpc.proxy;
+        this.flowRegistry = flowRegistry;
+        this.identities = identities;
+    }
+
+    /**
+     * Runs on the request thread for as long as the import takes, so that it is not cut short by the async request
+     * timeout that applies to the flow-starting endpoints.
+     */
+    @PostMapping(value = "/import", consumes = {CSV, NDJSON}, produces = NDJSON)
+    public void importPositions(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final boolean csv = request.getContentType().toLowerCase(Locale.ROOT).startsWith(CSV);
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+            new Import(csv, new BufferedWriter(
+                    new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8))).run(reader);
+        }
+    }
+
+    /** One parsed row. */
+    private static class Row {
+        private final long line;
+        private final boolean cash;
+        private final String code;
+        private final double amount;
+        private final Party party;
+
+        Row(long line, boolean cash, String code, double amount, Party party) {
+            this.line = line;
+            this.cash = cash;
+            this.code = code;
+            this.amount = amount;
+            this.party = party;
+        }
+    }
+
+    /** One finished batch: how each of its groups fared, or why the whole flow failed. */
+    private static class Completion {
+        private final List<Row> rows;
+        private final List<BatchIssueFlow.Group> groups;
+        private final Throwable error;
+
+        Completion(List<Row> rows, List<BatchIssueFlow.Group> groups, Throwable error) {
+            this.rows = rows;
+            this.groups = groups;
+            this.error = error;
+        }
+    }
+
+    private class Import {
+        private final boolean csv;
+        private final Writer out;
+        private final Semaphore permits = new Semaphore(maxInFlight);
+        // Finished batches, reported from the RPC client's threads and handled on the request thread, which is the
+        // only thread that writes to the response.
+        private final BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+        // Halves of the rows of failed groups, waiting to be resubmitted.
+        private final Deque<List<Row>> retries = new ArrayDeque<>();
+        private final List<Row> cash = new ArrayList<>();
+        private final List<Row> stock = new ArrayList<>();
+        // Batches submitted whose completion has not been handled yet.
+        private int running;
+        private boolean disconnected;
+
+        Import(boolean csv, Writer out) {
+            this.csv = csv;
+            this.out = out;
+        }
+
+        void run(BufferedReader reader) throws IOException {
+            try {
+                long line = 0;
+                String text;
+                while (!disconnected && (text = reader.readLine()) != null) {
+                    line++;
+                    if (text.trim().isEmpty()) continue;
+                    if (csv && line == 1 && text.toLowerCase(Locale.ROOT).startsWith("type")) continue;
+
+                    final Row row;
+                    try {
+                        row = csv ? parseCsv(line, text) : parseJson(line, text);
+                    } catch (IOException | IllegalArgumentException e) {
+                        write(Collections.singletonList(result(line, null, e.getMessage())));
+                        continue;
+                    }
+                    final List<Row> pending = row.cash ? cash : stock;
+                    pending.add(row);
+                    if (pending.size() >= batchSize) {
+                        submit(new ArrayList<>(pending));
+                        pending.clear();
+                    }
+                    drain();
+                    submitRetries();
+                }
+                if (!cash.isEmpty()) submit(new ArrayList<>(cash));
+                if (!stock.isEmpty()) submit(new ArrayList<>(stock));
+
+                // Wait for every batch, including retries of failed groups, to report back.
+                while (!disconnected && (running > 0 || !retries.isEmpty())) {
+                    submitRetries();
+                    final Completion completion = completions.poll(100, TimeUnit.MILLISECONDS);
+                    if (completion != null) handle(completion);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void submitRetries() throws InterruptedException {
+            List<Row> retry;
+            while ((retry = retries.poll()) != null) {
+                submit(retry);
+            }
+        }
+
+        /** Handles every batch that has finished so far. */
+        private void drain() {
+            Completion completion;
+            while ((completion = completions.poll()) != null) {
+                handle(completion);
+            }
+        }
+
+        /**
+         * Starts one batch issuance flow, waiting first for a free slot if the maximum number are running and writing
+         * out the batches that finish meanwhile.
+         */
+        private void submit(List<Row> rows) throws InterruptedException {
+            while (!permits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                drain();
+            }
+            running++;
+            final boolean isCash = rows.get(0).cash;
+            final String flowName = isCash ? "BatchIssueCashFlow" : "BatchIssueStockFlow";
+            try {
+                final FlowRegistry.FlowRecord<List<BatchIssueFlow.Group>> record = isCash
+                        ? flowRegistry.track(flowName, proxy.startFlowDynamic(BatchIssueCashFlow.Initiator.class,
+                                rows.stream()
+                                        .map(row -> new BatchIssueCashFlow.Entry(row.code, row.amount, row.party))
+                                        .collect(Collectors.toList())))
+                        : flowRegistry.track(flowName, proxy.startFlowDynamic(BatchIssueStockFlow.Initiator.class,
+                                rows.stream()
+                                        .map(row -> new BatchIssueStockFlow.Entry(row.code, row.amount, row.party))
+                                        .collect(Collectors.toList())));
+                record.result().whenComplete((groups, e) -> finished(rows, groups, e));
+            } catch (Exception e) {
+                finished(rows, null, e);
+            }
+        }
+
+        // Called on an RPC client thread: frees the batch's slot and leaves the rest to the request thread.
+        private void finished(List<Row> rows, List<BatchIssueFlow.Group> groups, Throwable e) {
+            permits.release();
+            completions.add(new Completion(rows, groups, e));
+        }
+
+        private void handle(Completion completion) {
+            running--;
+            if (completion.error != null) {
+                final String error = "outcome unknown, not retried: "
+                        + FlowRegistry.unwrap(completion.error).getMessage();
+                write(completion.rows.stream().map(row -> result(row.line, null, error)).collect(Collectors.toList()));
+                return;
+            }
+            for (BatchIssueFlow.Group group : completion.groups) {
+                final List<Row> rows = group.getEntries().stream()
+                        .map(completion.rows::get)
+                        .collect(Collectors.toList());
+                if (group.isCommitted()) {
+                    final String id = group.getTransaction().getId().toString();
+                    write(rows.stream().map(row -> result(row.line, id, null)).collect(Collectors.toList()));
+                } else if (rows.size() > 1) {
+                    retries.add(new ArrayList<>(rows.subList(0, rows.size() / 2)));
+                    retries.add(new ArrayList<>(rows.subList(rows.size() / 2, rows.size())));
+                } else {
+                    write(Collections.singletonList(result(rows.get(0).line, null, group.getError())));
+                }
+            }
+        }
+
+        private void write(List<Map<String, Object>> results) {
+            if (disconnected) return;
+            try {
+                for (Map<String, Object> result : results) {
+                    out.write(json.writeValueAsString(result));
+                    out.write('\n');
+                }
+                out.flush();
+            } catch (IOException e) {
+                logger.warn("Import client went away, abandoning the rest of the import: {}", e.getMessage());
+                disconnected = true;
+            }
+        }
+
+        private Row parseJson(long line, String text) throws IOException {
+            final IssueRequest request = json.readValue(text, IssueRequest.class);
+            if ((request.getCurrency() == null) == (request.getTicker() == null)) {
+                throw new IllegalArgumentException("exactly one of currency and ticker must be set");
+            }
+            final boolean isCash = request.getCurrency() != null;
+            return row(line, isCash, isCash ? request.getCurrency() : request.getTicker(), request.getAmount(),
+                    request.getPartyName());
+        }
+
+        private Row parseCsv(long line, String text) {
+            final List<String> fields = splitCsv(text);
+            if (fields.size() != 4) {
+                throw new IllegalArgumentException("expected type,code,amount,partyName but found " + fields.size()
+                        + " fields");
+            }
+            final String type = fields.get(0).trim().toLowerCase(Locale.ROOT);
+            if (!type.equals("cash") && !type.equals("stock")) {
+                throw new IllegalArgumentException("type must be cash or stock");
+            }
+            return row(line, type.equals("cash"), fields.get(1).trim(), Double.parseDouble(fields.get(2).trim()),
+                    fields.get(3).trim());
+        }
+
+        private Row row(long line, boolean isCash, String code, double amount, String partyName) {
+            if (partyName == null) throw new IllegalArgumentException("partyName must be set");
+            final Party party = identities.wellKnownParty(CordaX500Name.parse(partyName));
+            if (party == null) throw new IllegalArgumentException("Unknown party " + partyName);
+            return new Row(line, isCash, code, amount, party);
+        }
+    }
+
+    private static Map<String, Object> result(long line, String transactionId, String error) {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("line", line);
+        result.put("status", error == null ? "COMMITTED" : "FAILED");
+        if (transactionId != null) result.put("transactionId", transactionId);
+        if (error != null) result.put("error", error);
+        return result;
+    }
+
+    /** Splits one CSV line, honouring double quotes and doubled quotes inside them. */
+    static List<String> splitCsv(String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,23 @@
+package com.template.webserver;
+
+/**
+ * One entry of a batch issuance request. Cash entries set {@code currency}, Stock entries set {@code ticker}.
+ */
+public class IssueRequest {
+    private String currency;
+    private String ticker;
+    private double amount;
+    private String partyName;
+
+    public String getCurrency() { return currency; }
+    public void setCurrency(String currency) { this.currency = currency; }
+
+    public String getTicker() { return ticker; }
+    public void setTicker(String ticker) { this.ticker = ticker; }
+
+    public double getAmount() { return amount; }
+    public void setAmount(double amount) { this.amount = amount; }
+
+    public String getPartyName() { return partyName; }
+    public void setPartyName(String partyName) { this.partyName = partyName; }
+}
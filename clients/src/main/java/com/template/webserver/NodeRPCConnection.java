@@ -1,22 +1,51 @@
 package com.template.webserver;
 
+import kotlin.Unit;
 import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
 import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.GracefulReconnect;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Wraps an RPC connection to a Corda node.
+ * Wraps a pool of RPC connections to a Corda node.
  *
- * The RPC connection is configured using command line arguments.
+ * The RPC connection is configured using command line arguments. {@code proxy} dispatches each call to one of
+ * {@code config.rpc.pool-size} connections, either in turn ({@code config.rpc.dispatch=round-robin}) or to the one
+ * with the fewest calls in flight ({@code least-busy}). Each connection reconnects by itself when the node goes away,
+ * and connections that fail their health check, or do not answer it within {@code config.rpc.health-check-timeout-ms},
+ * are skipped until they recover. Anything holding state derived from the node's feeds registers a
+ * {@link ReconnectListener}, since updates sent while a connection was down are lost.
  */
 @Component
 public class NodeRPCConnection implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NodeRPCConnection.class);
+
     // The host of the node we are connecting to.
     @Value("${config.rpc.host}")
     private String host;
@@ -30,19 +59,230 @@ public class NodeRPCConnection implements AutoCloseable {
     @Value("${config.rpc.port}")
     private int rpcPort;
 
-    private CordaRPCConnection rpcConnection;
+    // The number of RPC connections to open.
+    @Value("${config.rpc.pool-size:4}")
+    private int poolSize;
+    // How calls are spread over the connections: round-robin or least-busy.
+    @Value("${config.rpc.dispatch:round-robin}")
+    private String dispatch;
+    // How often each connection is checked with a cheap RPC call.
+    @Value("${config.rpc.health-check-seconds:10}")
+    private long healthCheckSeconds;
+    // How long a connection has to answer its health check before it is taken to be down.
+    @Value("${config.rpc.health-check-timeout-ms:5000}")
+    private long healthCheckTimeoutMillis;
+    // Reconnect attempts after a connection is lost before giving up on it; -1 retries forever.
+    @Value("${config.rpc.max-reconnect-attempts:-1}")
+    private int maxReconnectAttempts;
+
+    // RPC client tuning, passed to CordaRPCClientConfiguration.
+    @Value("${config.rpc.observation-threads:4}")
+    private int observationThreads;
+    @Value("${config.rpc.max-message-size:10485760}")
+    private int maxMessageSize;
+    @Value("${config.rpc.reap-interval-ms:1000}")
+    private long reapIntervalMillis;
+    @Value("${config.rpc.retry-interval-ms:5000}")
+    private long retryIntervalMillis;
+    @Value("${config.rpc.max-retry-interval-ms:180000}")
+    private long maxRetryIntervalMillis;
+    @Value("${config.rpc.retry-interval-multiplier:1.5}")
+    private double retryIntervalMultiplier;
+
+    private final List<PooledConnection> pool = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final List<ReconnectListener> listeners = new CopyOnWriteArrayList<>();
+    // Set while a reconnection notice is waiting to run, so that a pool reconnecting at once reseeds only once.
+    private final AtomicBoolean reconnectPending = new AtomicBoolean();
+    private ScheduledExecutorService healthChecks;
+    private ExecutorService probes;
     CordaRPCOps proxy;
 
+    /**
+     * Told when a connection is lost and when one comes back. {@link #disconnected} runs on the RPC client's thread and
+     * must not block; {@link #reconnected} runs on the health check thread and may make RPC calls.
+     */
+    public interface ReconnectListener {
+        default void disconnected() {}
+
+        void reconnected();
+    }
+
     @PostConstruct
     public void initialiseNodeRPCConnection() {
+        if (poolSize < 1) throw new IllegalArgumentException("config.rpc.pool-size must be at least 1");
+        if (!dispatch.equals("round-robin") && !dispatch.equals("least-busy")) {
+            throw new IllegalArgumentException("config.rpc.dispatch must be round-robin or least-busy");
+        }
+
+        healthChecks = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rpc-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        probes = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "rpc-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         NetworkHostAndPort rpcAddress = new NetworkHostAndPort(host, rpcPort);
-        CordaRPCClient rpcClient = new CordaRPCClient(rpcAddress);
-        rpcConnection = rpcClient.start(username, password);
-        proxy = rpcConnection.getProxy();
+        CordaRPCClient rpcClient = new CordaRPCClient(rpcAddress, clientConfiguration());
+        for (int i = 0; i < poolSize; i++) {
+            pool.add(new PooledConnection(i, rpcClient));
+        }
+        proxy = (CordaRPCOps) Proxy.newProxyInstance(
+                CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class}, this::dispatch);
+
+        healthChecks.scheduleWithFixedDelay(this::checkHealth, healthCheckSeconds, healthCheckSeconds, TimeUnit.SECONDS);
+    }
+
+    public void addReconnectListener(ReconnectListener listener) {
+        listeners.add(listener);
+    }
+
+    /** The number of connections that passed their last health check. */
+    public int healthyConnections() {
+        return (int) pool.stream().filter(connection -> connection.healthy).count();
+    }
+
+    public int poolSize() {
+        return pool.size();
     }
 
     @PreDestroy
     public void close() {
-        rpcConnection.notifyServerAndClose();
+        if (healthChecks != null) healthChecks.shutdownNow();
+        if (probes != null) probes.shutdownNow();
+        for (PooledConnection connection : pool) {
+            connection.connection.notifyServerAndClose();
+        }
+    }
+
+    private CordaRPCClientConfiguration clientConfiguration() {
+        return new CordaRPCClientConfiguration(
+                Duration.ofMillis(maxRetryIntervalMillis),
+                CordaRPCClientConfiguration.DEFAULT.getMinimumServerProtocolVersion(),
+                CordaRPCClientConfiguration.DEFAULT.getTrackRpcCallSites(),
+                Duration.ofMillis(reapIntervalMillis),
+                observationThreads,
+                // cacheConcurrencyLevel: deprecated and unused by the client, so its declared default of 1 rather
+                // than the deprecated getter; it is positional, ahead of the settings below.
+                1,
+                Duration.ofMillis(retryIntervalMillis),
+                retryIntervalMultiplier,
+                maxReconnectAttempts,
+                maxMessageSize,
+                CordaRPCClientConfiguration.DEFAULT.getDeduplicationCacheExpiry());
+    }
+
+    private Object dispatch(Object self, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals": return self == args[0];
+                case "hashCode": return System.identityHashCode(self);
+                default: return "NodeRPCConnection(" + host + ":" + rpcPort + ", " + pool.size() + " connections)";
+            }
+        }
+        PooledConnection connection = choose();
+        connection.inFlight.incrementAndGet();
+        try {
+            return method.invoke(connection.proxy, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            connection.inFlight.decrementAndGet();
+        }
+    }
+
+    /** Picks a healthy connection, or any connection if none is healthy so the caller sees the node's error. */
+    private PooledConnection choose() {
+        List<PooledConnection> candidates = new ArrayList<>(pool.size());
+        for (PooledConnection connection : pool) {
+            if (connection.healthy) candidates.add(connection);
+        }
+        if (candidates.isEmpty()) candidates = pool;
+
+        if (dispatch.equals("least-busy")) {
+            return Collections.min(candidates, (a, b) -> Integer.compare(a.inFlight.get(), b.inFlight.get()));
+        }
+        return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+    }
+
+    /** Probes every connection at once, so that one hung connection cannot hold up the others' checks. */
+    private void checkHealth() {
+        List<Future<?>> results = new ArrayList<>(pool.size());
+        for (PooledConnection connection : pool) {
+            results.add(probes.submit(connection.proxy::currentNodeTime));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(healthCheckTimeoutMillis);
+        for (int i = 0; i < pool.size(); i++) {
+            Future<?> result = results.get(i);
+            boolean healthy;
+            try {
+                result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                healthy = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException e) {
+                result.cancel(true);
+                healthy = false;
+            }
+            pool.get(i).setHealthy(healthy);
+        }
+    }
+
+    private void disconnected() {
+        for (ReconnectListener listener : listeners) {
+            listener.disconnected();
+        }
+    }
+
+    private void reconnected() {
+        if (!reconnectPending.compareAndSet(false, true)) return;
+        healthChecks.execute(() -> {
+            reconnectPending.set(false);
+            for (ReconnectListener listener : listeners) {
+                try {
+                    listener.reconnected();
+                } catch (Exception e) {
+                    logger.warn("Could not bring {} up to date after reconnecting", listener, e);
+                }
+            }
+        });
+    }
+
+    /** One connection of the pool and the calls currently running on it. */
+    private final class PooledConnection {
+        private final int index;
+        private final CordaRPCConnection connection;
+        private final CordaRPCOps proxy;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean healthy = true;
+
+        PooledConnection(int index, CordaRPCClient client) {
+            this.index = index;
+            this.connection = client.start(username, password, new GracefulReconnect(
+                    () -> {
+                        setHealthy(false);
+                        disconnected();
+                        return Unit.INSTANCE;
+                    },
+                    () -> {
+                        setHealthy(true);
+                        reconnected();
+                        return Unit.INSTANCE;
+                    },
+                    maxReconnectAttempts));
+            this.proxy = connection.getProxy();
+        }
+
+        void setHealthy(boolean healthy) {
+            if (this.healthy != healthy) {
+                logger.info("RPC connection {} to {}:{} is {}", index, host, rpcPort, healthy ? "up" : "down");
+            }
+            this.healthy = healthy;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,351 @@
+package com.template.webserver;
+
+import com.dtcc.tril.workshop.queries.AssetQueries;
+import com.dtcc.tril.workshop.states.Asset;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import rx.Subscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Keeps the node's unconsumed Cash and Stock states in memory so that read endpoints do not need an RPC round trip.
+ *
+ * The cache is seeded from a single {@code vaultTrackBy} snapshot, which is consistent with the update stream that
+ * follows it, and then kept current by applying each {@link Vault.Update}. If the vault holds more states than
+ * {@code config.cache.seed-limit} the snapshot is truncated; the cache then reports itself incomplete and the
+ * controller keeps querying the node. It does the same from the moment an RPC connection drops until the feeds have
+ * been reseeded after it comes back, since updates sent in between are lost.
+ */
+@Component
+public class PositionCache {
+    private static final Logger logger = LoggerFactory.getLogger(PositionCache.class);
+
+    private final NodeRPCConnection rpc;
+    private final CordaRPCOps proxy;
+    private final AssetIndex<Cash> cash = new AssetIndex<>(Cash::getCurrency);
+    private final AssetIndex<Stock> stocks = new AssetIndex<>(Stock::getTicker);
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    // Consistency marker: the number of vault updates applied so far, and when the last one was applied.
+    private final AtomicLong version = new AtomicLong();
+    private volatile Instant lastUpdate = Instant.now();
+
+    // The largest vault snapshot we are prepared to hold in memory.
+    @Value("${config.cache.seed-limit:100000}")
+    private int seedLimit;
+
+    public PositionCache(NodeRPCConnection rpc) {
+        this.rpc = rpc;
+        this.proxy = rpc.proxy;
+    }
+
+    @PostConstruct
+    public void start() {
+        seed();
+        rpc.addReconnectListener(new NodeRPCConnection.ReconnectListener() {
+            @Override
+            public void disconnected() {
+                cash.complete = false;
+                stocks.complete = false;
+            }
+
+            @Override
+            public void reconnected() {
+                logger.info("Reseeding the position cache after the node connection came back");
+                seed();
+            }
+        });
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        subscriptions.forEach(Subscription::unsubscribe);
+        subscriptions.clear();
+    }
+
+    /** Replaces the cache's contents and feeds with a fresh snapshot of the vault and the updates that follow it. */
+    private synchronized void seed() {
+        stop();
+        cash.clear();
+        stocks.clear();
+        version.incrementAndGet();
+        lastUpdate = Instant.now();
+        subscriptions.add(track(Cash.class, cash));
+        subscriptions.add(track(Stock.class, stocks));
+    }
+
+    public boolean isComplete() {
+        return cash.complete && stocks.complete;
+    }
+
+    public VaultPage<Cash> cash(Party owner, String currency, String sort, Sort.Direction direction,
+                                int page, int pageSize) {
+        return cash.query(owner, currency, "currency", sort, direction, page, pageSize, marker());
+    }
+
+    public VaultPage<Stock> stocks(Party owner, String ticker, String sort, Sort.Direction direction,
+                                   int page, int pageSize) {
+        return stocks.query(owner, ticker, "ticker", sort, direction, page, pageSize, marker());
+    }
+
+    private VaultPage.Consistency marker() {
+        return new VaultPage.Consistency(version.get(), lastUpdate);
+    }
+
+    private <T extends Asset> Subscription track(Class<T> type, AssetIndex<T> index) {
+        DataFeed<Vault.Page<T>, Vault.Update<T>> feed = proxy.vaultTrackBy(
+                new QueryCriteria.VaultQueryCriteria(),
+                new PageSpecification(DEFAULT_PAGE_NUM, seedLimit),
+                new Sort(Collections.singletonList(new Sort.SortColumn(
+                        new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC))),
+                type);
+        Vault.Page<T> snapshot = feed.getSnapshot();
+        snapshot.getStates().forEach(index::add);
+        index.complete = snapshot.getTotalStatesAvailable() <= seedLimit;
+        if (!index.complete) {
+            logger.warn("{} {} states exceed the cache seed limit of {}; serving them from the node",
+                    snapshot.getTotalStatesAvailable(), type.getSimpleName(), seedLimit);
+        }
+
+        return feed.getUpdates().subscribe(update -> {
+            update.getConsumed().forEach(index::remove);
+            update.getProduced().forEach(index::add);
+            lastUpdate = Instant.now();
+            version.incrementAndGet();
+        }, e -> {
+            logger.error("{} update feed failed; serving them from the node", type.getSimpleName(), e);
+            index.complete = false;
+        });
+    }
+
+    /**
+     * Unconsumed states of one type, indexed by owner, by currency or ticker, and by both.
+     *
+     * Every index keeps its entries in the order in which they were seen, so that the default listing follows recorded
+     * time, as it does on the node, and a page of it is read straight off the index without copying or sorting. Only
+     * the other sort orders copy the matching entries. Reading the page after the one last served seeks straight to
+     * where that page ended; any other page walks the index from the start, so costs time in its offset. Writes come
+     * from one thread at a time: the snapshot, then the update stream.
+     */
+    private static class AssetIndex<T extends Asset> {
+        private final Function<T, String> code;
+        private final AtomicLong sequence = new AtomicLong();
+        private final Map<StateRef, Entry<T>> byRef = new ConcurrentHashMap<>();
+        private final Slice<T> all = new Slice<>();
+        private final Map<String, Slice<T>> byOwner = new ConcurrentHashMap<>();
+        private final Map<String, Slice<T>> byCode = new ConcurrentHashMap<>();
+        private final Map<List<String>, Slice<T>> byOwnerAndCode = new ConcurrentHashMap<>();
+        private volatile boolean complete;
+
+        AssetIndex(Function<T, String> code) {
+            this.code = code;
+        }
+
+        /** Empties the index and marks it incomplete until it is seeded again. */
+        void clear() {
+            complete = false;
+            byRef.clear();
+            all.clear();
+            byOwner.clear();
+            byCode.clear();
+            byOwnerAndCode.clear();
+        }
+
+        void add(StateAndRef<T> stateAndRef) {
+            T state = stateAndRef.getState().getData();
+            Entry<T> entry = new Entry<>(stateAndRef, sequence.incrementAndGet());
+            byRef.put(stateAndRef.getRef(), entry);
+            all.add(entry);
+            String owner = AssetQueries.ownerColumn(state.getOwner());
+            String codeValue = code.apply(state);
+            byOwner.computeIfAbsent(owner, k -> new Slice<>()).add(entry);
+            byCode.computeIfAbsent(codeValue, k -> new Slice<>()).add(entry);
+            byOwnerAndCode.computeIfAbsent(Arrays.asList(owner, codeValue), k -> new Slice<>()).add(entry);
+        }
+
+        void remove(StateAndRef<T> stateAndRef) {
+            Entry<T> entry = byRef.remove(stateAndRef.getRef());
+            if (entry == null) return;
+            T state = entry.state();
+            all.remove(entry);
+            String owner = AssetQueries.ownerColumn(state.getOwner());
+            String codeValue = code.apply(state);
+            removeFrom(byOwner, owner, entry);
+            removeFrom(byCode, codeValue, entry);
+            removeFrom(byOwnerAndCode, Arrays.asList(owner, codeValue), entry);
+        }
+
+        VaultPage<T> query(Party owner, String codeValue, String codeColumn, String sort, Sort.Direction direction,
+                           int page, int pageSize, VaultPage.Consistency consistency) {
+            String ownerKey = owner == null ? null : AssetQueries.ownerColumn(owner);
+            Slice<T> slice;
+            if (ownerKey == null) {
+                slice = codeValue == null ? all : byCode.get(codeValue);
+            } else {
+                slice = codeValue == null
+                        ? byOwner.get(ownerKey)
+                        : byOwnerAndCode.get(Arrays.asList(ownerKey, codeValue));
+            }
+            if (slice == null) return new VaultPage<>(Collections.emptyList(), page, pageSize, 0, consistency);
+
+            long from = (long) (page - 1) * pageSize;
+            if (sort == null || sort.equals("recorded")) {
+                return new VaultPage<>(slice.page(direction, from, pageSize), page, pageSize, slice.size.get(),
+                        consistency);
+            }
+            List<Entry<T>> matches = new ArrayList<>(slice.entries.values());
+            matches.sort(comparator(codeColumn, sort, direction));
+            List<StateAndRef<T>> states = matches.stream()
+                    .skip(from)
+                    .limit(pageSize)
+                    .map(entry -> entry.stateAndRef)
+                    .collect(Collectors.toList());
+            return new VaultPage<>(states, page, pageSize, slice.size.get(), consistency);
+        }
+
+        private Comparator<Entry<T>> comparator(String codeColumn, String sort, Sort.Direction direction) {
+            final Comparator<Entry<T>> comparator;
+            if (sort.equals("amount")) {
+                comparator = Comparator.comparingLong(entry -> entry.state().getQuantity());
+            } else if (sort.equals("owner")) {
+                comparator = Comparator.comparing(entry -> AssetQueries.ownerColumn(entry.state().getOwner()));
+            } else if (sort.equals(codeColumn)) {
+                comparator = Comparator.comparing(entry -> code.apply(entry.state()));
+            } else {
+                throw new IllegalArgumentException("Cannot sort by " + sort);
+            }
+            return direction == Sort.Direction.DESC ? comparator.reversed() : comparator;
+        }
+
+        private static <K, T extends Asset> void removeFrom(Map<K, Slice<T>> index, K key, Entry<T> entry) {
+            index.computeIfPresent(key, (k, slice) -> {
+                slice.remove(entry);
+                return slice.size.get() == 0 ? null : slice;
+            });
+        }
+    }
+
+    /** The entries under one key of an index, in the order they were seen, and how many there are. */
+    private static class Slice<T extends Asset> {
+        private final ConcurrentNavigableMap<Long, Entry<T>> entries = new ConcurrentSkipListMap<>();
+        // Kept alongside, since counting a skip list walks it.
+        private final AtomicInteger size = new AtomicInteger();
+        // Bumped on every change, so that a bookmark taken before it is never trusted.
+        private final AtomicLong changes = new AtomicLong();
+        private volatile Bookmark bookmark;
+
+        void add(Entry<T> entry) {
+            if (entries.put(entry.sequence, entry) == null) size.incrementAndGet();
+            changes.incrementAndGet();
+        }
+
+        void remove(Entry<T> entry) {
+            if (entries.remove(entry.sequence) != null) size.decrementAndGet();
+            changes.incrementAndGet();
+        }
+
+        void clear() {
+            entries.clear();
+            size.set(0);
+            changes.incrementAndGet();
+        }
+
+        /** Up to {@code pageSize} states in recorded order, starting {@code from} entries in. */
+        List<StateAndRef<T>> page(Sort.Direction direction, long from, int pageSize) {
+            final boolean descending = direction == Sort.Direction.DESC;
+            final long version = changes.get();
+            final Bookmark mark = bookmark;
+            Collection<Entry<T>> ordered;
+            long skip = from;
+            if (from > 0 && mark != null && mark.matches(descending, from, version)) {
+                // The previous page ended at the bookmarked key and nothing has changed since, so start just past it.
+                ordered = descending
+                        ? entries.headMap(mark.key, false).descendingMap().values()
+                        : entries.tailMap(mark.key, false).values();
+                skip = 0;
+            } else {
+                ordered = descending ? entries.descendingMap().values() : entries.values();
+            }
+
+            final List<StateAndRef<T>> states = new ArrayList<>(pageSize);
+            long last = 0;
+            for (Entry<T> entry : ordered) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (states.size() == pageSize) break;
+                states.add(entry.stateAndRef);
+                last = entry.sequence;
+            }
+            if (states.size() == pageSize) bookmark = new Bookmark(descending, from + pageSize, last, version);
+            return states;
+        }
+    }
+
+    /** Where a page in recorded order ended: the offset just past it and the sequence key of its last entry. */
+    private static class Bookmark {
+        private final boolean descending;
+        private final long offset;
+        private final long key;
+        private final long version;
+
+        Bookmark(boolean descending, long offset, long key, long version) {
+            this.descending = descending;
+            this.offset = offset;
+            this.key = key;
+            this.version = version;
+        }
+
+        boolean matches(boolean descending, long offset, long version) {
+            return this.descending == descending && this.offset == offset && this.version == version;
+        }
+    }
+
+    private static class Entry<T extends Asset> {
+        private final StateAndRef<T> stateAndRef;
+        private final long sequence;
+
+        Entry(StateAndRef<T> stateAndRef, long sequence) {
+            this.stateAndRef = stateAndRef;
+            this.sequence = sequence;
+        }
+
+        T state() {
+            return stateAndRef.getState().getData();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.template.webserver;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the RPC pool on {@code /actuator/health}: up while at least one connection to the node is healthy.
+ */
+@Component
+public class RpcHealthIndicator implements HealthIndicator {
+    private final NodeRPCConnection rpc;
+
+    public RpcHealthIndicator(NodeRPCConnection rpc) {
+        this.rpc = rpc;
+    }
+
+    @Override
+    public Health health() {
+        int healthy = rpc.healthyConnections();
+        return (healthy > 0 ? Health.up() : Health.down())
+                .withDetail("healthyConnections", healthy)
+                .withDetail("poolSize", rpc.poolSize())
+                .build();
+    }
+}
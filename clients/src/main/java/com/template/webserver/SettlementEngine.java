@@ -0,0 +1,303 @@
+package com.template.webserver;
+
+import com.dtcc.tril.workshop.flows.BatchIssueCashFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueStockFlow;
+import com.dtcc.tril.workshop.flows.IssueCashFlow;
+import com.dtcc.tril.workshop.flows.IssueStockFlow;
+import com.dtcc.tril.workshop.flows.NotCommittedException;
+import com.dtcc.tril.workshop.flows.SettlementFlow;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces issue and transfer requests into shared transactions, so that a burst of requests costs a few signature
+ * and notary rounds instead of one each.
+ *
+ * Requests are queued in windows keyed by the parties and assets they touch: issues by receiver and currency or
+ * ticker, transfers by the pair of owners, currency and ticker. With the node's {@code hash} notary policy those keys
+ * also fix the notary, so a window never needs a notary change that its requests would not have needed alone. A
+ * window is submitted when it has been open for {@code config.batching.window-ms} or holds
+ * {@code config.batching.max-size} requests: issues as one batch issue flow, transfers as one {@link SettlementFlow}.
+ *
+ * Every caller gets its own future, which completes with the shared transaction. If a batch provably did not commit,
+ * its requests are resubmitted one by one, so a bad request only fails its own caller; if its outcome is unknown, they
+ * all fail rather than risk applying them twice. A transfer on its own is still a {@link SettlementFlow}, so it selects
+ * its inputs just as it would have in a batch.
+ *
+ * On shutdown the open windows are submitted, and their callers are given up to
+ * {@code config.batching.shutdown-timeout-ms} to complete.
+ */
+@Component
+public class SettlementEngine {
+    private static final Logger logger = LoggerFactory.getLogger(SettlementEngine.class);
+
+    private enum Kind { ISSUE_CASH, ISSUE_STOCK, TRANSFER }
+
+    private final CordaRPCOps proxy;
+    private final FlowRegistry flowRegistry;
+    // Open windows, by kind and key. Guarded by this.
+    private final Map<List<Object>, Window> windows = new HashMap<>();
+    // Callers whose requests have not completed yet.
+    private final Set<CompletableFuture<SignedTransaction>> outstanding = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService submitter;
+
+    @Value("${config.batching.enabled:false}")
+    private boolean enabled;
+    @Value("${config.batching.window-ms:50}")
+    private long windowMillis;
+    @Value("${config.batching.max-size:100}")
+    private int maxSize;
+    @Value("${config.batching.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMillis;
+
+    public SettlementEngine(NodeRPCConnection rpc, FlowRegistry flowRegistry) {
+        this.proxy = rpc.proxy;
+        this.flowRegistry = flowRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (maxSize < 1) throw new IllegalArgumentException("config.batching.max-size must be at least 1");
+        // Flows are started from here rather than on request or RPC observation threads, which must not block.
+        submitter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "settlement-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        final List<Window> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(windows.values());
+            windows.clear();
+        }
+        pending.forEach(window -> submitter.execute(() -> submit(window)));
+
+        // Fallbacks are started on the submitter, so it has to keep running until every request has completed.
+        try {
+            CompletableFuture.allOf(outstanding.toArray(new CompletableFuture<?>[0]))
+                    .get(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // A failed request has already been reported to its caller; only the timeout leaves any outstanding.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!outstanding.isEmpty()) {
+            logger.warn("Shutting down with {} batched requests outstanding", outstanding.size());
+            final IllegalStateException stopped = new IllegalStateException("Shut down before the request completed");
+            outstanding.forEach(result -> result.completeExceptionally(stopped));
+        }
+        submitter.shutdown();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CompletableFuture<SignedTransaction> issueCash(String currency, double amount, Party receiver) {
+        return enqueue(Kind.ISSUE_CASH, Arrays.asList(receiver, currency), new Request(
+                new BatchIssueCashFlow.Entry(currency, amount, receiver),
+                () -> proxy.startFlowDynamic(IssueCashFlow.Initiator.class, currency, amount, receiver)));
+    }
+
+    public CompletableFuture<SignedTransaction> issueStock(String ticker, double amount, Party receiver) {
+        return enqueue(Kind.ISSUE_STOCK, Arrays.asList(receiver, ticker), new Request(
+                new BatchIssueStockFlow.Entry(ticker, amount, receiver),
+                () -> proxy.startFlowDynamic(IssueStockFlow.Initiator.class, ticker, amount, receiver)));
+    }
+
+    /** Delivers {@code cash} from its owner to the owner of {@code stock}, against the stock in the other direction. */
+    public CompletableFuture<SignedTransaction> transfer(Cash cash, Stock stock) {
+        final Party payer = cash.getOwner();
+        final Party seller = stock.getOwner();
+        final List<SettlementFlow.Leg> legs = Arrays.asList(
+                new SettlementFlow.Leg(SettlementFlow.Kind.CASH, cash.getCurrency(), cash.getAmount(), payer, seller),
+                new SettlementFlow.Leg(SettlementFlow.Kind.STOCK, stock.getTicker(), stock.getAmount(), seller, payer));
+        // Transfers between the same two parties share a window whichever of them is paying.
+        final boolean ordered = payer.getName().toString().compareTo(seller.getName().toString()) <= 0;
+        return enqueue(Kind.TRANSFER,
+                Arrays.asList(ordered ? payer : seller, ordered ? seller : payer, cash.getCurrency(), stock.getTicker()),
+                new Request(legs, () -> proxy.startFlowDynamic(SettlementFlow.Initiator.class, legs)));
+    }
+
+    private CompletableFuture<SignedTransaction> enqueue(Kind kind, List<Object> key, Request request) {
+        outstanding.add(request.result);
+        request.result.whenComplete((stx, e) -> outstanding.remove(request.result));
+        final List<Object> windowKey = Arrays.asList(kind, key);
+        Window full = null;
+        synchronized (this) {
+            Window window = windows.get(windowKey);
+            if (window == null) {
+                final Window opened = new Window(kind);
+                opened.timer = submitter.schedule(() -> close(windowKey, opened), windowMillis, TimeUnit.MILLISECONDS);
+                windows.put(windowKey, opened);
+                window = opened;
+            }
+            window.requests.add(request);
+            if (window.requests.size() >= maxSize) {
+                windows.remove(windowKey);
+                window.timer.cancel(false);
+                full = window;
+            }
+        }
+        if (full != null) {
+            final Window submitted = full;
+            submitter.execute(() -> submit(submitted));
+        }
+        return request.result;
+    }
+
+    private void close(List<Object> windowKey, Window window) {
+        synchronized (this) {
+            // The window may already have been submitted because it filled up.
+            if (!windows.remove(windowKey, window)) return;
+        }
+        submit(window);
+    }
+
+    private void submit(Window window) {
+        final List<Request> requests = window.requests;
+        if (requests.size() == 1) {
+            submitAlone(requests.get(0));
+            return;
+        }
+
+        final CompletableFuture<SignedTransaction> result;
+        try {
+            switch (window.kind) {
+                case ISSUE_CASH:
+                    // Every entry in the window has the same receiver and currency, so the flow builds one transaction.
+                    result = start("BatchIssueCashFlow", () -> proxy.startFlowDynamic(
+                            BatchIssueCashFlow.Initiator.class, payloads(requests, BatchIssueCashFlow.Entry.class)))
+                            .thenApply(SettlementEngine::committed);
+                    break;
+                case ISSUE_STOCK:
+                    result = start("BatchIssueStockFlow", () -> proxy.startFlowDynamic(
+                            BatchIssueStockFlow.Initiator.class, payloads(requests, BatchIssueStockFlow.Entry.class)))
+                            .thenApply(SettlementEngine::committed);
+                    break;
+                default:
+                    final List<SettlementFlow.Leg> legs = new ArrayList<>();
+                    for (Request request : requests) {
+                        for (Object leg : (List<?>) request.payload) {
+                            legs.add((SettlementFlow.Leg) leg);
+                        }
+                    }
+                    result = start("SettlementFlow",
+                            () -> proxy.startFlowDynamic(SettlementFlow.Initiator.class, legs));
+            }
+        } catch (Exception e) {
+            requests.forEach(request -> request.result.completeExceptionally(e));
+            return;
+        }
+
+        result.whenCompleteAsync((stx, e) -> {
+            if (e == null) {
+                requests.forEach(request -> request.result.complete(stx));
+                return;
+            }
+            final Throwable cause = FlowRegistry.unwrap(e);
+            if (!(cause instanceof NotCommittedException)) {
+                // The batch may have committed after all, and resubmitting its requests would then apply them twice.
+                logger.warn("Batch of {} {} requests failed with an unknown outcome, not resubmitting them: {}",
+                        requests.size(), window.kind, cause.getMessage());
+                final IllegalStateException unknown = new IllegalStateException(
+                        "outcome unknown, not retried: " + cause.getMessage(), cause);
+                requests.forEach(request -> request.result.completeExceptionally(unknown));
+                return;
+            }
+            logger.warn("Batch of {} {} requests did not commit, resubmitting them one by one: {}",
+                    requests.size(), window.kind, cause.getMessage());
+            requests.forEach(this::submitAlone);
+        }, submitter);
+    }
+
+    private void submitAlone(Request request) {
+        final CompletableFuture<SignedTransaction> result;
+        try {
+            result = start(request.flowName(), request.alone);
+        } catch (Exception e) {
+            request.result.completeExceptionally(e);
+            return;
+        }
+        result.whenComplete((stx, e) -> {
+            if (e == null) request.result.complete(stx);
+            else request.result.completeExceptionally(FlowRegistry.unwrap(e));
+        });
+    }
+
+    /** The transaction of a batch issue that built one; a group with an error provably did not commit. */
+    private static SignedTransaction committed(List<BatchIssueFlow.Group> groups) {
+        final BatchIssueFlow.Group group = groups.get(0);
+        if (!group.isCommitted()) throw new CompletionException(new NotCommittedException(group.getError()));
+        return group.getTransaction();
+    }
+
+    /** Starts a flow and tracks it like any other flow started through the REST API. */
+    private <T> CompletableFuture<T> start(String flowName, Supplier<FlowHandle<T>> start) {
+        return flowRegistry.track(flowName, start.get()).result();
+    }
+
+    private static <T> List<T> payloads(List<Request> requests, Class<T> type) {
+        return requests.stream().map(request -> type.cast(request.payload)).collect(Collectors.toList());
+    }
+
+    /** One caller's request: its share of the batch, and the flow that carries it out if it has to go alone. */
+    private static class Request {
+        private final Object payload;
+        private final Supplier<FlowHandle<SignedTransaction>> alone;
+        private final CompletableFuture<SignedTransaction> result = new CompletableFuture<>();
+
+        Request(Object payload, Supplier<FlowHandle<SignedTransaction>> alone) {
+            this.payload = payload;
+            this.alone = alone;
+        }
+
+        String flowName() {
+            if (payload instanceof BatchIssueCashFlow.Entry) return "IssueCashFlow";
+            if (payload instanceof BatchIssueStockFlow.Entry) return "IssueStockFlow";
+            return "SettlementFlow";
+        }
+    }
+
+    private static class Window {
+        private final Kind kind;
+        private final List<Request> requests = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+
+        Window(Kind kind) {
+            this.kind = kind;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.template.webserver;
+
+/**
+ * A swap of a Cash state for a Stock state, as submitted over the WebSocket channel.
+ */
+public class TransferRequest {
+    private String currency;
+    private double cashAmount;
+    private String cashOwnerName;
+    private String ticker;
+    private double stockAmount;
+    private String stockOwnerName;
+
+    public String getCurrency() { return currency; }
+    public void setCurrency(String currency) { this.currency = currency; }
+
+    public double getCashAmount() { return cashAmount; }
+    public void setCashAmount(double cashAmount) { this.cashAmount = cashAmount; }
+
+    public String getCashOwnerName() { return cashOwnerName; }
+    public void setCashOwnerName(String cashOwnerName) { this.cashOwnerName = cashOwnerName; }
+
+    public String getTicker() { return ticker; }
+    public void setTicker(String ticker) { this.ticker = ticker; }
+
+    public double getStockAmount() { return stockAmount; }
+    public void setStockAmount(double stockAmount) { this.stockAmount = stockAmount; }
+
+    public String getStockOwnerName() { return stockOwnerName; }
+    public void setStockOwnerName(String stockOwnerName) { this.stockOwnerName = stockOwnerName; }
+}
@@ -0,0 +1,59 @@
+package com.template.webserver;
+
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.Vault;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One page of a vault query as returned by the REST API.
+ *
+ * {@code next} is the page to ask for to continue the listing, or null when this is the last page.
+ * {@code consistency} is set when the page was served from the {@link PositionCache}, and null when it came
+ * straight from the node.
+ */
+public class VaultPage<T extends ContractState> {
+    private final List<StateAndRef<T>> states;
+    private final int page;
+    private final int pageSize;
+    private final long totalStatesAvailable;
+    private final Integer next;
+    private final Consistency consistency;
+
+    public VaultPage(List<StateAndRef<T>> states, int page, int pageSize, long totalStatesAvailable,
+                     Consistency consistency) {
+        this.states = states;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.totalStatesAvailable = totalStatesAvailable;
+        this.next = (long) page * pageSize < totalStatesAvailable ? page + 1 : null;
+        this.consistency = consistency;
+    }
+
+    public static <T extends ContractState> VaultPage<T> of(Vault.Page<T> result, int page, int pageSize) {
+        return new VaultPage<>(result.getStates(), page, pageSize, result.getTotalStatesAvailable(), null);
+    }
+
+    public List<StateAndRef<T>> getStates() { return states; }
+    public int getPage() { return page; }
+    public int getPageSize() { return pageSize; }
+    public long getTotalStatesAvailable() { return totalStatesAvailable; }
+    public Integer getNext() { return next; }
+    public Consistency getConsistency() { return consistency; }
+
+    /** How far the cache had got through the node's vault updates when the page was built. */
+    public static class Consistency {
+        private final long version;
+        private final Instant lastUpdate;
+
+        public Consistency(long version, Instant lastUpdate) {
+            this.version = version;
+            this.lastUpdate = lastUpdate;
+        }
+
+        public long getVersion() { return version; }
+        public Instant getLastUpdate() { return lastUpdate; }
+    }
+}
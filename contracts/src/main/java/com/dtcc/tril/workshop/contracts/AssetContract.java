@@ -6,10 +6,17 @@ import com.dtcc.tril.workshop.states.Stock;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.CommandWithParties;
 import net.corda.core.contracts.Contract;
+import net.corda.core.identity.Party;
 import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.LedgerTransaction.InOutGroup;
 
-import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
-import static net.corda.core.contracts.ContractsDSL.requireThat;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 // ************
 // * Contract *
@@ -18,104 +25,268 @@ public class AssetContract implements Contract {
     // This is used to identify our contract when building a transaction.
     public static final String ID = "com.dtcc.tril.workshop.contracts";
 
+    // Quantities are fixed-point, so conservation is checked exactly.
+    private static final long MAX_QUANTITY = 500000 * Asset.SCALE;
+    private static final int MAX_TICKER_LENGTH = 4;
+
     // A transaction is valid if the verify() function of the contract of all the transaction's input and output states
     // does not throw an exception.
+    //
+    // Verification runs for every transaction in every back-chain on every node, so it dispatches on the command type,
+    // groups the states once per state type however many commands there are, and checks each group in a single loop
+    // without allocating per check.
     @Override
     public void verify(LedgerTransaction tx) {
+        final List<CommandWithParties<CommandData>> commands = tx.getCommands();
+
+        List<InOutGroup<Cash, String>> cashGroups = null;
+        List<InOutGroup<Stock, String>> stockGroups = null;
+        boolean coversCash = false;
+        boolean coversStock = false;
+
+        for (int i = 0; i < commands.size(); i++) {
+            final CommandWithParties<CommandData> command = commands.get(i);
+            final CommandData commandData = command.getValue();
+            if (!(commandData instanceof Commands)) continue;
+
+            if (cashGroups == null) {
+                cashGroups = tx.groupStates(Cash.class, Cash::getCurrency);
+                stockGroups = tx.groupStates(Stock.class, Stock::getTicker);
+            }
+
+            if (commandData instanceof Commands.IssueCash) {
+                verifyIssueCash(cashGroups);
+                coversCash = true;
+            } else if (commandData instanceof Commands.IssueStock) {
+                verifyIssueStock(stockGroups);
+                coversStock = true;
+            } else if (commandData instanceof Commands.TransferCash) {
+                verifyTransferCash(cashGroups, command.getSigners());
+                coversCash = true;
+            } else if (commandData instanceof Commands.TransferStock) {
+                verifyTransferStock(stockGroups, command.getSigners());
+                coversStock = true;
+            } else if (commandData instanceof Commands.Transfer) {
+                verifySwap(cashGroups, stockGroups, command.getSigners());
+                coversCash = true;
+                coversStock = true;
+            } else if (commandData instanceof Commands.Settle) {
+                verifySettle(tx, (Commands.Settle) commandData, cashGroups, stockGroups, command.getSigners());
+                coversCash = true;
+                coversStock = true;
+            } else {
+                throw new IllegalArgumentException("Unrecognised command " + commandData.getClass().getName());
+            }
+        }
+
+        requireThat(coversCash || coversStock, "The transaction must have an AssetContract command");
+        // Every state we govern must have been checked by some command.
+        requireThat(coversCash || cashGroups.isEmpty(), "Cash states require a cash command");
+        requireThat(coversStock || stockGroups.isEmpty(), "Stock states require a stock command");
+    }
+
+    private static void verifyIssueCash(List<InOutGroup<Cash, String>> groups) {
+        requireThat(!groups.isEmpty(), "At least one Cash state must be issued.");
+        for (int i = 0; i < groups.size(); i++) {
+            final InOutGroup<Cash, String> group = groups.get(i);
+            requireThat(group.getInputs().isEmpty(), "No inputs should be consumed when issuing Cash.");
+            requireThat(group.getGroupingKey().equals("USD"), "The currency must be USD");
+            requireValidAmounts(group.getOutputs(), "The amount must be greater than 0",
+                    "The amount must be less than 500,000");
+        }
+    }
+
+    private static void verifyIssueStock(List<InOutGroup<Stock, String>> groups) {
+        requireThat(!groups.isEmpty(), "At least one Stock state must be issued.");
+        for (int i = 0; i < groups.size(); i++) {
+            final InOutGroup<Stock, String> group = groups.get(i);
+            requireThat(group.getInputs().isEmpty(), "No inputs should be consumed when issuing Stock.");
+            requireThat(isTicker(group.getGroupingKey()), "The ticker must be 1 to 4 upper-case letters");
+            requireValidAmounts(group.getOutputs(), "The amount must be greater than 0",
+                    "The amount must be less than 500,000");
+        }
+    }
+
+    private static void verifyTransferCash(List<InOutGroup<Cash, String>> groups, List<PublicKey> signers) {
+        requireThat(!groups.isEmpty(), "A cash transfer must move some cash");
+        for (int i = 0; i < groups.size(); i++) {
+            final InOutGroup<Cash, String> group = groups.get(i);
+            requireThat(group.getGroupingKey().equals("USD"), "The cash input currency must be USD");
+            verifyTransferGroup(group.getInputs(), group.getOutputs(), signers, TransferRules.CASH);
+        }
+    }
+
+    private static void verifyTransferStock(List<InOutGroup<Stock, String>> groups, List<PublicKey> signers) {
+        requireThat(!groups.isEmpty(), "A stock transfer must move some stock");
+        for (int i = 0; i < groups.size(); i++) {
+            final InOutGroup<Stock, String> group = groups.get(i);
+            requireThat(group.getGroupingKey().length() <= MAX_TICKER_LENGTH, "The stock input ticker must be at most 4 letters");
+            verifyTransferGroup(group.getInputs(), group.getOutputs(), signers, TransferRules.STOCK);
+        }
+    }
+
+    /**
+     * A swap of cash for stock: each side is a transfer, and whoever gives up cash receives the stock and vice versa.
+     */
+    private static void verifySwap(List<InOutGroup<Cash, String>> cashGroups,
+                                   List<InOutGroup<Stock, String>> stockGroups,
+                                   List<PublicKey> signers) {
+        verifyTransferCash(cashGroups, signers);
+        verifyTransferStock(stockGroups, signers);
+
+        requireThat(inputOwners(cashGroups).equals(outputOwners(stockGroups)),
+                "The cash input owner must be the stock output owner");
+        requireThat(inputOwners(stockGroups).equals(outputOwners(cashGroups)),
+                "The stock input owner must be the cash output owner");
+    }
+
+    private static void verifySettle(LedgerTransaction tx, Commands.Settle settle,
+                                     List<InOutGroup<Cash, String>> cashGroups,
+                                     List<InOutGroup<Stock, String>> stockGroups,
+                                     List<PublicKey> signers) {
+        requireThat(!tx.getInputs().isEmpty(), "A settlement must consume at least one input");
+        int settled = 0;
+        for (int i = 0; i < cashGroups.size(); i++) {
+            final InOutGroup<Cash, String> group = cashGroups.get(i);
+            requireThat(group.getGroupingKey().equals("USD"), "The cash currency must be USD");
+            verifySettlementGroup(group.getInputs(), group.getOutputs(), signers,
+                    settle.getCash().get(group.getGroupingKey()));
+            if (settle.getCash().containsKey(group.getGroupingKey())) settled++;
+        }
+        for (int i = 0; i < stockGroups.size(); i++) {
+            final InOutGroup<Stock, String> group = stockGroups.get(i);
+            requireThat(group.getGroupingKey().length() <= MAX_TICKER_LENGTH, "The stock ticker must be at most 4 letters");
+            verifySettlementGroup(group.getInputs(), group.getOutputs(), signers,
+                    settle.getStock().get(group.getGroupingKey()));
+            if (settle.getStock().containsKey(group.getGroupingKey())) settled++;
+        }
+        requireThat(settled == settle.getCash().size() + settle.getStock().size(),
+                "Every currency and ticker in the settlement command must be settled");
+    }
+
+    /**
+     * Checks one currency or ticker of a transfer: every input owner has signed, every input and output is within
+     * bounds, the amount is conserved, and none of it stays with a previous owner.
+     */
+    private static void verifyTransferGroup(List<? extends Asset> inputs, List<? extends Asset> outputs,
+                                            List<PublicKey> signers, TransferRules rules) {
+        requireThat(!inputs.isEmpty(), rules.hasInput);
+        final Set<Party> owners = new HashSet<>();
+        long in = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            final Asset input = inputs.get(i);
+            requireThat(input.getQuantity() > 0, rules.positive);
+            requireThat(input.getQuantity() < MAX_QUANTITY, rules.bounded);
+            requireThat(signers.contains(input.getOwner().getOwningKey()), rules.signed);
+            owners.add(input.getOwner());
+            in += input.getQuantity();
+        }
+        long out = 0;
+        for (int i = 0; i < outputs.size(); i++) {
+            final Asset output = outputs.get(i);
+            requireThat(output.getQuantity() > 0, rules.outputPositive);
+            requireThat(output.getQuantity() < MAX_QUANTITY, rules.outputBounded);
+            requireThat(!owners.contains(output.getOwner()), rules.changesOwner);
+            out += output.getQuantity();
+        }
+        requireThat(in == out, rules.conserved);
+    }
+
+    // The failure messages for cash and stock transfers, built once rather than on every check.
+    private static final class TransferRules {
+        static final TransferRules CASH = new TransferRules("cash");
+        static final TransferRules STOCK = new TransferRules("stock");
+
+        final String hasInput;
+        final String positive;
+        final String bounded;
+        final String outputPositive;
+        final String outputBounded;
+        final String signed;
+        final String changesOwner;
+        final String conserved;
+
+        private TransferRules(String kind) {
+            this.hasInput = "A " + kind + " transfer must consume an input";
+            this.positive = "The " + kind + " input amount must be greater than 0";
+            this.bounded = "The " + kind + " input amount must be less than 500,000";
+            this.outputPositive = "The " + kind + " output amount must be greater than 0";
+            this.outputBounded = "The " + kind + " output amount must be less than 500,000";
+            this.signed = "The " + kind + " input owner must sign";
+            this.changesOwner = "The " + kind + " must change owners";
+            this.conserved = "The " + kind + " input amount must match the output amount";
+        }
+    }
+
+    /**
+     * Checks one currency or ticker of a settlement: the amount is conserved, every output is positive, every owner
+     * giving up a state has signed, and each owner's holding changes by exactly the net position the command states,
+     * so no state can be routed to anyone other than the parties to the agreed legs.
+     */
+    private static void verifySettlementGroup(List<? extends Asset> inputs, List<? extends Asset> outputs,
+                                              List<PublicKey> signers, Map<Party, Long> netPositions) {
+        final Map<Party, Long> nets = new HashMap<>();
+        long in = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            final Asset input = inputs.get(i);
+            requireThat(signers.contains(input.getOwner().getOwningKey()), "Every input owner must sign the settlement");
+            in += input.getQuantity();
+            nets.merge(input.getOwner(), -input.getQuantity(), Long::sum);
+        }
+        long out = 0;
+        for (int i = 0; i < outputs.size(); i++) {
+            final Asset output = outputs.get(i);
+            requireThat(output.getQuantity() > 0, "Every output amount must be greater than 0");
+            out += output.getQuantity();
+            nets.merge(output.getOwner(), output.getQuantity(), Long::sum);
+        }
+        requireThat(in == out, "Each currency and ticker must be conserved by a settlement");
+
+        // Change returned to a payer nets to nothing and is not part of the command.
+        nets.values().removeIf(net -> net == 0);
+        requireThat(nets.equals(netPositions == null ? Collections.emptyMap() : netPositions),
+                "Each owner's holding must change by its net position in the settlement command");
+    }
+
+    private static void requireValidAmounts(List<? extends Asset> states, String positive, String bounded) {
+        for (int i = 0; i < states.size(); i++) {
+            final long quantity = states.get(i).getQuantity();
+            requireThat(quantity > 0, positive);
+            requireThat(quantity < MAX_QUANTITY, bounded);
+        }
+    }
+
+    // New tickers are short upper-case codes; states issued before this rule only had to be short.
+    private static boolean isTicker(String ticker) {
+        if (ticker.isEmpty() || ticker.length() > MAX_TICKER_LENGTH) return false;
+        for (int i = 0; i < ticker.length(); i++) {
+            final char c = ticker.charAt(i);
+            if (c < 'A' || c > 'Z') return false;
+        }
+        return true;
+    }
+
+    private static <T extends Asset> Set<Party> inputOwners(List<InOutGroup<T, String>> groups) {
+        final Set<Party> owners = new HashSet<>();
+        for (int i = 0; i < groups.size(); i++) {
+            final List<T> inputs = groups.get(i).getInputs();
+            for (int j = 0; j < inputs.size(); j++) owners.add(inputs.get(j).getOwner());
+        }
+        return owners;
+    }
 
-        /* We can use the requireSingleCommand function to extract command data from transaction.
-         * However, it is possible to have multiple commands in a signle transaction.*/
-        final CommandWithParties<Commands> command = requireSingleCommand(tx.getCommands(), Commands.class);
-        final Commands commandData = command.getValue();
-
-        if (commandData.equals(new Commands.IssueCash())) {
-            //Retrieve the output state of the transaction
-            Cash output = tx.outputsOfType(Cash.class).get(0);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-                require.using("No inputs should be consumed when issuing Cash.", tx.getInputStates().size() == 0);
-                require.using("The currency must be USD", output.getCurrency().equals("USD"));
-                require.using("The amount must be greater than 0", output.getAmount() > 0);
-                require.using("The amount must be less than 500,000", output.getAmount() < 500000);
-                return null;
-            });
-        } else if (commandData.equals(new Commands.IssueStock())) {
-            //Retrieve the output state of the transaction
-            Stock output = tx.outputsOfType(Stock.class).get(0);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-                require.using("No inputs should be consumed when issuing Stock.", tx.getInputStates().size() == 0);
-                require.using("The ticker must be at most 4 letters", output.getTicker().length() <= 4);
-                require.using("The amount must be greater than 0", output.getAmount() > 0);
-                require.using("The amount must be less than 500,000", output.getAmount() < 500000);
-                return null;
-            });
-        } else if (commandData.equals(new Commands.TransferCash())) {
-            //Retrieve the input state of the transaction
-            Cash cashInput = tx.inputsOfType(Cash.class).get(0);
-
-            //Retrieve the output state of the transaction
-            Cash cashOutput = tx.outputsOfType(Cash.class).get(0);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-                require.using("The cash input amount must be greater than 0", cashInput.getAmount() > 0);
-                require.using("The cash input amount must be less than 500,000", cashInput.getAmount() < 500000);
-                require.using("The cash input amount must match the output amount", cashInput.getAmount() == cashOutput.getAmount());
-                require.using("The cash input currency must be USD", cashInput.getCurrency().equals("USD"));
-                require.using("The cash input currency must match the output currency", cashInput.getAmount() == cashOutput.getAmount());
-                require.using("The cash must change owners", !cashInput.getOwner().equals(cashOutput.getOwner()));
-                return null;
-            });
-        } else if (commandData.equals(new Commands.TransferStock())) {
-            //Retrieve the input state of the transaction
-            Stock stockInput = tx.inputsOfType(Stock.class).get(0);
-
-            //Retrieve the output state of the transaction
-            Stock stockOutput = tx.outputsOfType(Stock.class).get(0);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-                require.using("The stock input amount must be greater than 0", stockInput.getAmount() > 0);
-                require.using("The stock input amount must be less than 500,000", stockInput.getAmount() < 500000);
-                require.using("The stock input amount must match the output amount", stockInput.getAmount() == stockOutput.getAmount());
-                require.using("The stock input ticker must be at most 4 letters", stockInput.getTicker().length() <= 4);
-                require.using("The stock input currency must match the output currency", stockInput.getAmount() == stockOutput.getAmount());
-                require.using("The stock must change owners", !stockInput.getOwner().equals(stockOutput.getOwner()));
-                return null;
-            });
-        } else if (commandData.equals(new Commands.Transfer())) {
-            //Retrieve the input state of the transaction
-            Cash cashInput = tx.inputsOfType(Cash.class).get(0);
-            Stock stockInput = tx.inputsOfType(Stock.class).get(0);
-
-            //Retrieve the output state of the transaction
-            Cash cashOutput = tx.outputsOfType(Cash.class).get(0);
-            Stock stockOutput = tx.outputsOfType(Stock.class).get(0);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-                require.using("The cash input amount must be greater than 0", cashInput.getAmount() > 0);
-                require.using("The cash input amount must be less than 500,000", cashInput.getAmount() < 500000);
-                require.using("The cash input amount must match the output amount", cashInput.getAmount() == cashOutput.getAmount());
-                require.using("The cash input currency must be USD", cashInput.getCurrency().equals("USD"));
-                require.using("The cash input currency must match the output currency", cashInput.getAmount() == cashOutput.getAmount());
-
-                require.using("The stock input amount must be greater than 0", stockInput.getAmount() > 0);
-                require.using("The stock input amount must be less than 500,000", stockInput.getAmount() < 500000);
-                require.using("The stock input amount must match the output amount", stockInput.getAmount() == stockOutput.getAmount());
-                require.using("The stock input ticker must be at most 4 letters", stockInput.getTicker().length() <= 4);
-                require.using("The stock input ticker must match the output ticker", stockInput.getTicker() == stockOutput.getTicker());
-
-                require.using("The cash must change owners", !cashInput.getOwner().equals(cashOutput.getOwner()));
-                require.using("The stock must change owners", !stockInput.getOwner().equals(stockOutput.getOwner()));
-                require.using("The cash input owner must be the stock output owner", !cashInput.getOwner().equals(stockOutput.getOwner()));
-                require.using("The stock input owner must be the cash output owner", !stockInput.getOwner().equals(cashOutput.getOwner()));
-                return null;
-            });
+    private static <T extends Asset> Set<Party> outputOwners(List<InOutGroup<T, String>> groups) {
+        final Set<Party> owners = new HashSet<>();
+        for (int i = 0; i < groups.size(); i++) {
+            final List<T> outputs = groups.get(i).getOutputs();
+            for (int j = 0; j < outputs.size(); j++) owners.add(outputs.get(j).getOwner());
         }
+        return owners;
+    }
+
+    // Same failure as the requireThat DSL, without allocating a lambda and a Requirements per check.
+    private static void requireThat(boolean condition, String message) {
+        if (!condition) throw new IllegalArgumentException("Failed requirement: " + message);
     }
 
     // Used to indicate the transaction's intent.
@@ -125,5 +296,22 @@ public class AssetContract implements Contract {
         class TransferCash implements Commands {}
         class TransferStock implements Commands {}
         class Transfer implements Commands {}
+
+        /**
+         * Carries each party's agreed net position, by currency and by ticker, in thousandths of a unit: positive for
+         * what it receives, negative for what it delivers. Parties whose legs net to zero are left out.
+         */
+        class Settle implements Commands {
+            private final Map<String, Map<Party, Long>> cash;
+            private final Map<String, Map<Party, Long>> stock;
+
+            public Settle(Map<String, Map<Party, Long>> cash, Map<String, Map<Party, Long>> stock) {
+                this.cash = cash;
+                this.stock = stock;
+            }
+
+            public Map<String, Map<Party, Long>> getCash() { return cash; }
+            public Map<String, Map<Party, Long>> getStock() { return stock; }
+        }
     }
-}
\ No newline at end of file
+}
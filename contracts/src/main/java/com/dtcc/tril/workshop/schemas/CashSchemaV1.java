@@ -0,0 +1,53 @@
+package com.dtcc.tril.workshop.schemas;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Collections;
+
+/**
+ * A Cash schema. The owner, currency and amount columns are indexed together so that the
+ * vault can answer "cash of this currency owned by this party" without a table scan.
+ */
+public class CashSchemaV1 extends MappedSchema {
+    public CashSchemaV1() {
+        super(CashSchema.class, 1, Collections.singletonList(PersistentCash.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "cash.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "cash_states", indexes = {
+            @Index(name = "cash_owner_currency_amount_idx", columnList = "owner, currency, amount"),
+            @Index(name = "cash_currency_idx", columnList = "currency")
+    })
+    public static class PersistentCash extends PersistentState {
+        @Column(name = "owner") private final String owner;
+        @Column(name = "currency") private final String currency;
+        @Column(name = "amount") private final double amount;
+
+        public PersistentCash(String owner, String currency, double amount) {
+            this.owner = owner;
+            this.currency = currency;
+            this.amount = amount;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentCash() {
+            this.owner = null;
+            this.currency = null;
+            this.amount = 0;
+        }
+
+        public String getOwner() { return owner; }
+        public String getCurrency() { return currency; }
+        public double getAmount() { return amount; }
+    }
+}
@@ -0,0 +1,57 @@
+package com.dtcc.tril.workshop.schemas;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Collections;
+
+/**
+ * A Cash schema that adds the exact fixed-point quantity to {@link CashSchemaV1}. The owner, currency and quantity
+ * columns are indexed together, so lookups match and aggregates sum exact quantities rather than doubles.
+ */
+public class CashSchemaV2 extends MappedSchema {
+    public CashSchemaV2() {
+        super(CashSchema.class, 2, Collections.singletonList(PersistentCash.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "cash.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "cash_states_v2", indexes = {
+            @Index(name = "cash_v2_owner_currency_quantity_idx", columnList = "owner, currency, quantity"),
+            @Index(name = "cash_v2_currency_idx", columnList = "currency")
+    })
+    public static class PersistentCash extends PersistentState {
+        @Column(name = "owner") private final String owner;
+        @Column(name = "currency") private final String currency;
+        @Column(name = "quantity") private final long quantity;
+        @Column(name = "amount") private final double amount;
+
+        public PersistentCash(String owner, String currency, long quantity, double amount) {
+            this.owner = owner;
+            this.currency = currency;
+            this.quantity = quantity;
+            this.amount = amount;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentCash() {
+            this.owner = null;
+            this.currency = null;
+            this.quantity = 0;
+            this.amount = 0;
+        }
+
+        public String getOwner() { return owner; }
+        public String getCurrency() { return currency; }
+        public long getQuantity() { return quantity; }
+        public double getAmount() { return amount; }
+    }
+}
@@ -0,0 +1,6 @@
+package com.dtcc.tril.workshop.schemas;
+
+/**
+ * The family of schemas for {@link com.dtcc.tril.workshop.states.Stock}.
+ */
+public class StockSchema {}
@@ -0,0 +1,53 @@
+package com.dtcc.tril.workshop.schemas;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Collections;
+
+/**
+ * A Stock schema. The owner, ticker and amount columns are indexed together so that the
+ * vault can answer "stock of this ticker owned by this party" without a table scan.
+ */
+public class StockSchemaV1 extends MappedSchema {
+    public StockSchemaV1() {
+        super(StockSchema.class, 1, Collections.singletonList(PersistentStock.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "stock.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "stock_states", indexes = {
+            @Index(name = "stock_owner_ticker_amount_idx", columnList = "owner, ticker, amount"),
+            @Index(name = "stock_ticker_idx", columnList = "ticker")
+    })
+    public static class PersistentStock extends PersistentState {
+        @Column(name = "owner") private final String owner;
+        @Column(name = "ticker") private final String ticker;
+        @Column(name = "amount") private final double amount;
+
+        public PersistentStock(String owner, String ticker, double amount) {
+            this.owner = owner;
+            this.ticker = ticker;
+            this.amount = amount;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentStock() {
+            this.owner = null;
+            this.ticker = null;
+            this.amount = 0;
+        }
+
+        public String getOwner() { return owner; }
+        public String getTicker() { return ticker; }
+        public double getAmount() { return amount; }
+    }
+}
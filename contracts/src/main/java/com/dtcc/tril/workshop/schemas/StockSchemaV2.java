@@ -0,0 +1,57 @@
+package com.dtcc.tril.workshop.schemas;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Collections;
+
+/**
+ * A Stock schema that adds the exact fixed-point quantity to {@link StockSchemaV1}. The owner, ticker and quantity
+ * columns are indexed together, so lookups match and aggregates sum exact quantities rather than doubles.
+ */
+public class StockSchemaV2 extends MappedSchema {
+    public StockSchemaV2() {
+        super(StockSchema.class, 2, Collections.singletonList(PersistentStock.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "stock.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "stock_states_v2", indexes = {
+            @Index(name = "stock_v2_owner_ticker_quantity_idx", columnList = "owner, ticker, quantity"),
+            @Index(name = "stock_v2_ticker_idx", columnList = "ticker")
+    })
+    public static class PersistentStock extends PersistentState {
+        @Column(name = "owner") private final String owner;
+        @Column(name = "ticker") private final String ticker;
+        @Column(name = "quantity") private final long quantity;
+        @Column(name = "amount") private final double amount;
+
+        public PersistentStock(String owner, String ticker, long quantity, double amount) {
+            this.owner = owner;
+            this.ticker = ticker;
+            this.quantity = quantity;
+            this.amount = amount;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentStock() {
+            this.owner = null;
+            this.ticker = null;
+            this.quantity = 0;
+            this.amount = 0;
+        }
+
+        public String getOwner() { return owner; }
+        public String getTicker() { return ticker; }
+        public long getQuantity() { return quantity; }
+        public double getAmount() { return amount; }
+    }
+}
@@ -7,35 +7,75 @@ import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 // *********
 // * State *
 // *********
+//
+// Every state is serialized into every transaction and back-chain that carries it, so only what cannot be derived is
+// stored: a fixed-point quantity rather than a double, the owner once, and any other participants as an immutable
+// list that is usually empty. That list holds Party rather than AbstractParty: each state is serialized with its own
+// schema, and Party is in it already for the owner.
 @BelongsToContract(AssetContract.class)
-public class Asset implements ContractState {
+public abstract class Asset implements ContractState {
+    // Quantities are in thousandths of a unit, the precision amounts have always been compared to.
+    public static final long SCALE = 1000;
 
-    private List<AbstractParty> participants;
-    private double amount;
-    private Party owner;
+    private final long quantity;
+    private final Party owner;
+    private final List<Party> observers;
 
-    /* Constructor of your Corda state */
-    public Asset(double amount, Party owner) {
-        this.amount = amount;
+    protected Asset(long quantity, Party owner, List<Party> observers) {
+        this.quantity = quantity;
         this.owner = owner;
-        this.participants = new ArrayList<>();
-        this.participants.add(owner);
+        this.observers = observers == null || observers.isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(observers));
     }
 
-    public double getAmount() { return amount; }
+    public static long toQuantity(double amount) {
+        return Math.round(amount * SCALE);
+    }
+
+    public static double toAmount(long quantity) {
+        return (double) quantity / SCALE;
+    }
+
+    /** The amount in thousandths of a unit. */
+    public long getQuantity() { return quantity; }
+    /** The amount in units, for display and for callers that work in decimals. */
+    public double getAmount() { return toAmount(quantity); }
     public Party getOwner() { return owner; }
+    /** Participants other than the owner, such as the issuer or previous owner keeping sight of the state. */
+    public List<Party> getObservers() { return observers; }
 
     /* This method will indicate who are the participants and required signers when
      * this state is used in a transaction. */
     @Override
-    public List<AbstractParty> getParticipants() { return this.participants; }
+    public List<AbstractParty> getParticipants() {
+        if (observers.isEmpty()) return Collections.singletonList(owner);
+        final List<AbstractParty> participants = new ArrayList<>(observers.size() + 1);
+        participants.add(owner);
+        participants.addAll(observers);
+        return participants;
+    }
+
+    /** A copy of this state with {@code party} as an extra participant. */
+    public abstract Asset withParticipant(Party party);
+
+    protected List<Party> observersWith(Party party) {
+        final List<Party> extended = new ArrayList<>(observers);
+        if (!party.equals(owner) && !extended.contains(party)) extended.add(party);
+        return extended;
+    }
 
-    public void addParticipant(AbstractParty party) {
-        this.participants.add(party);
+    // Currencies and tickers repeat across every state in a vault, so they share one string per code. On the wire they
+    // stay strings: AMQP writes a code of up to four letters in 5 or 6 bytes, which a packed int would only bring to 5,
+    // and changing the property's type is not an evolution that states already on the ledger could be read under. The
+    // contract validates codes at issuance instead (USD only; tickers of 1 to 4 upper-case letters).
+    protected static String code(String code) {
+        return code == null ? null : code.intern();
     }
-}
\ No newline at end of file
+}
@@ -1,22 +1,61 @@
 package com.dtcc.tril.workshop.states;
 
 import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.schemas.CashSchemaV1;
+import com.dtcc.tril.workshop.schemas.CashSchemaV2;
 import net.corda.core.contracts.BelongsToContract;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
+import net.corda.core.serialization.ConstructorForDeserialization;
+import net.corda.core.serialization.DeprecatedConstructorForDeserialization;
+
+import java.util.Arrays;
+import java.util.List;
 
 // *********
 // * State *
 // *********
 @BelongsToContract(AssetContract.class)
-public class Cash extends Asset {
+public class Cash extends Asset implements QueryableState {
+
+    private final String currency;
 
-    private String currency;
+    @ConstructorForDeserialization
+    public Cash(String currency, long quantity, Party owner, List<Party> observers) {
+        super(quantity, owner, observers);
+        this.currency = code(currency);
+    }
 
-    /* Constructor of your Corda state */
+    /* Constructor of your Corda state. Also reads states serialized before amounts were fixed-point. */
+    @DeprecatedConstructorForDeserialization(version = 1)
     public Cash(String currency, double amount, Party owner) {
-        super(amount, owner);
-        this.currency = currency;
+        this(currency, toQuantity(amount), owner, null);
     }
 
     public String getCurrency() { return currency; }
-}
\ No newline at end of file
+
+    @Override
+    public Cash withParticipant(Party party) {
+        return new Cash(currency, getQuantity(), getOwner(), observersWith(party));
+    }
+
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof CashSchemaV2) {
+            return new CashSchemaV2.PersistentCash(getOwner().getName().toString(), currency, getQuantity(),
+                    getAmount());
+        } else if (schema instanceof CashSchemaV1) {
+            return new CashSchemaV1.PersistentCash(getOwner().getName().toString(), currency, getAmount());
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        // V1 is still written so that anything reading it keeps working; queries go through V2.
+        return Arrays.asList(new CashSchemaV1(), new CashSchemaV2());
+    }
+}
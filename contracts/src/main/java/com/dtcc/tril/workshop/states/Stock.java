@@ -1,22 +1,61 @@
 package com.dtcc.tril.workshop.states;
 
 import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.schemas.StockSchemaV1;
+import com.dtcc.tril.workshop.schemas.StockSchemaV2;
 import net.corda.core.contracts.BelongsToContract;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
+import net.corda.core.serialization.ConstructorForDeserialization;
+import net.corda.core.serialization.DeprecatedConstructorForDeserialization;
+
+import java.util.Arrays;
+import java.util.List;
 
 // *********
 // * State *
 // *********
 @BelongsToContract(AssetContract.class)
-public class Stock extends Asset {
+public class Stock extends Asset implements QueryableState {
+
+    private final String ticker;
 
-    private String ticker;
+    @ConstructorForDeserialization
+    public Stock(String ticker, long quantity, Party owner, List<Party> observers) {
+        super(quantity, owner, observers);
+        this.ticker = code(ticker);
+    }
 
-    /* Constructor of your Corda state */
+    /* Constructor of your Corda state. Also reads states serialized before amounts were fixed-point. */
+    @DeprecatedConstructorForDeserialization(version = 1)
     public Stock(String ticker, double amount, Party owner) {
-        super(amount, owner);
-        this.ticker = ticker;
+        this(ticker, toQuantity(amount), owner, null);
     }
 
 	public String getTicker() { return ticker; }
-}
\ No newline at end of file
+
+    @Override
+    public Stock withParticipant(Party party) {
+        return new Stock(ticker, getQuantity(), getOwner(), observersWith(party));
+    }
+
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof StockSchemaV2) {
+            return new StockSchemaV2.PersistentStock(getOwner().getName().toString(), ticker, getQuantity(),
+                    getAmount());
+        } else if (schema instanceof StockSchemaV1) {
+            return new StockSchemaV1.PersistentStock(getOwner().getName().toString(), ticker, getAmount());
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        // V1 is still written so that anything reading it keeps working; queries go through V2.
+        return Arrays.asList(new StockSchemaV1(), new StockSchemaV2());
+    }
+}
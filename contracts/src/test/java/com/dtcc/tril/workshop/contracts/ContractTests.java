@@ -0,0 +1,427 @@
+package com.dtcc.tril.workshop.contracts;
+
+import com.dtcc.tril.workshop.states.Asset;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
+public class ContractTests {
+    private static final String CONTRACT = AssetContract.class.getName();
+
+    private final TestIdentity bank = new TestIdentity(new CordaX500Name("Bank", "London", "GB"));
+    private final TestIdentity alice = new TestIdentity(new CordaX500Name("Alice", "London", "GB"));
+    private final TestIdentity bob = new TestIdentity(new CordaX500Name("Bob", "New York", "US"));
+    private final MockServices ledgerServices = new MockServices(
+            Arrays.asList("com.dtcc.tril.workshop.contracts", "com.dtcc.tril.workshop.states"));
+
+    // ***************
+    // * Issue cash  *
+    // ***************
+
+    @Test
+    public void issueCashVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(50, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueCash());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void issueCashMustNotConsumeInputs() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, bank));
+                tx.output(CONTRACT, cash(100, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueCash());
+                return tx.failsWith("No inputs should be consumed when issuing Cash.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void issueCashMustBeUsd() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CONTRACT, new Cash("EUR", Asset.toQuantity(100), alice.getParty(), null));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueCash());
+                return tx.failsWith("The currency must be USD");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void issueCashAmountMustBeInBounds() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CONTRACT, cash(0, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueCash());
+                return tx.failsWith("The amount must be greater than 0");
+            });
+            l.transaction(tx -> {
+                tx.output(CONTRACT, cash(500000, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueCash());
+                return tx.failsWith("The amount must be less than 500,000");
+            });
+            return null;
+        });
+    }
+
+    // ***************
+    // * Issue stock *
+    // ***************
+
+    @Test
+    public void issueStockVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CONTRACT, stock("ABC", 10, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueStock());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void issueStockTickerMustBeUpperCaseLetters() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CONTRACT, stock("abc", 10, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueStock());
+                return tx.failsWith("The ticker must be 1 to 4 upper-case letters");
+            });
+            l.transaction(tx -> {
+                tx.output(CONTRACT, stock("ABCDE", 10, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueStock());
+                return tx.failsWith("The ticker must be 1 to 4 upper-case letters");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void issueStockAmountMustBePositive() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CONTRACT, stock("ABC", -1, alice));
+                tx.command(keys(bank, alice), new AssetContract.Commands.IssueStock());
+                return tx.failsWith("The amount must be greater than 0");
+            });
+            return null;
+        });
+    }
+
+    // *****************
+    // * Transfer cash *
+    // *****************
+
+    @Test
+    public void transferCashVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(60, alice));
+                tx.input(CONTRACT, cash(40, alice));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.command(keys(alice, bob), new AssetContract.Commands.TransferCash());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transferCashMustBeSignedByTheInputOwner() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.command(keys(bob), new AssetContract.Commands.TransferCash());
+                return tx.failsWith("The cash input owner must sign");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transferCashMustConserveTheAmount() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(99.999, bob));
+                tx.command(keys(alice, bob), new AssetContract.Commands.TransferCash());
+                return tx.failsWith("The cash input amount must match the output amount");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transferCashMustChangeOwners() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(100, alice));
+                tx.command(keys(alice), new AssetContract.Commands.TransferCash());
+                return tx.failsWith("The cash must change owners");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transferCashOutputsMustBeInBounds() {
+        ledger(ledgerServices, l -> {
+            // A zero output alongside the full amount conserves it, but is not a holding.
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.output(CONTRACT, cash(0, bob));
+                tx.command(keys(alice, bob), new AssetContract.Commands.TransferCash());
+                return tx.failsWith("The cash output amount must be greater than 0");
+            });
+            // Inputs that are each in bounds must not merge into an output that is not.
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(300000, alice));
+                tx.input(CONTRACT, cash(300000, alice));
+                tx.output(CONTRACT, cash(600000, bob));
+                tx.command(keys(alice, bob), new AssetContract.Commands.TransferCash());
+                return tx.failsWith("The cash output amount must be less than 500,000");
+            });
+            return null;
+        });
+    }
+
+    // ******************
+    // * Transfer stock *
+    // ******************
+
+    @Test
+    public void transferStockVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, stock("ABC", 4, alice));
+                tx.output(CONTRACT, stock("ABC", 6, bank));
+                tx.command(keys(bob), new AssetContract.Commands.TransferStock());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void transferStockRules() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, stock("ABC", 10, alice));
+                tx.command(keys(alice), new AssetContract.Commands.TransferStock());
+                return tx.failsWith("The stock input owner must sign");
+            });
+            l.transaction(tx -> {
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, stock("ABC", 11, alice));
+                tx.command(keys(bob), new AssetContract.Commands.TransferStock());
+                return tx.failsWith("The stock input amount must match the output amount");
+            });
+            l.transaction(tx -> {
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, stock("ABC", 12, alice));
+                tx.output(CONTRACT, stock("ABC", -2, alice));
+                tx.command(keys(bob), new AssetContract.Commands.TransferStock());
+                return tx.failsWith("The stock output amount must be greater than 0");
+            });
+            l.transaction(tx -> {
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.command(keys(bob), new AssetContract.Commands.TransferStock());
+                return tx.failsWith("The stock input amount must match the output amount");
+            });
+            return null;
+        });
+    }
+
+    // *******************************
+    // * Transfer: cash against stock *
+    // *******************************
+
+    @Test
+    public void swapVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.output(CONTRACT, stock("ABC", 10, alice));
+                tx.command(keys(alice, bob), new AssetContract.Commands.Transfer());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void swapMustDeliverEachSideToTheOther() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.output(CONTRACT, stock("ABC", 10, bank));
+                tx.command(keys(alice, bob), new AssetContract.Commands.Transfer());
+                return tx.failsWith("The cash input owner must be the stock output owner");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void swapOutputsMustBeInBounds() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.output(CONTRACT, cash(0, bob));
+                tx.output(CONTRACT, stock("ABC", 10, alice));
+                tx.command(keys(alice, bob), new AssetContract.Commands.Transfer());
+                return tx.failsWith("The cash output amount must be greater than 0");
+            });
+            return null;
+        });
+    }
+
+    // **********
+    // * Settle *
+    // **********
+
+    @Test
+    public void settleVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, cash(30, bob));
+                tx.output(CONTRACT, cash(70, alice));
+                tx.output(CONTRACT, stock("ABC", 10, alice));
+                tx.command(keys(alice, bob), settle(nets("USD", alice, -30, bob, 30),
+                        nets("ABC", bob, -10, alice, 10)));
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void settleMustMatchTheNetPositionsInTheCommand() {
+        ledger(ledgerServices, l -> {
+            // The change goes to someone other than the payer, so alice's holding moves by more than agreed.
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, cash(30, bob));
+                tx.output(CONTRACT, cash(70, bank));
+                tx.output(CONTRACT, stock("ABC", 10, alice));
+                tx.command(keys(alice, bob), settle(nets("USD", alice, -30, bob, 30),
+                        nets("ABC", bob, -10, alice, 10)));
+                return tx.failsWith("Each owner's holding must change by its net position in the settlement command");
+            });
+            // Every asset in the command must be settled by the transaction.
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.command(keys(alice, bob), settle(nets("USD", alice, -100, bob, 100),
+                        nets("ABC", bob, -10, alice, 10)));
+                return tx.failsWith("Every currency and ticker in the settlement command must be settled");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void settleRules() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.command(keys(bob), settle(nets("USD", alice, -100, bob, 100), Collections.emptyMap()));
+                return tx.failsWith("Every input owner must sign the settlement");
+            });
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.output(CONTRACT, cash(0, alice));
+                tx.command(keys(alice, bob), settle(nets("USD", alice, -100, bob, 100), Collections.emptyMap()));
+                return tx.failsWith("Every output amount must be greater than 0");
+            });
+            l.transaction(tx -> {
+                tx.output(CONTRACT, cash(100, bob));
+                tx.command(keys(alice, bob), settle(Collections.emptyMap(), Collections.emptyMap()));
+                return tx.failsWith("A settlement must consume at least one input");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void statesRequireAnAssetCommand() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CONTRACT, cash(100, alice));
+                tx.input(CONTRACT, stock("ABC", 10, bob));
+                tx.output(CONTRACT, cash(100, bob));
+                tx.output(CONTRACT, stock("ABC", 10, alice));
+                tx.command(keys(alice, bob), new AssetContract.Commands.TransferCash());
+                return tx.failsWith("Stock states require a stock command");
+            });
+            return null;
+        });
+    }
+
+    private static Cash cash(double amount, TestIdentity owner) {
+        return new Cash("USD", Asset.toQuantity(amount), owner.getParty(), null);
+    }
+
+    private static Stock stock(String ticker, double amount, TestIdentity owner) {
+        return new Stock(ticker, Asset.toQuantity(amount), owner.getParty(), null);
+    }
+
+    private static List<PublicKey> keys(TestIdentity... signers) {
+        return Arrays.stream(signers).map(TestIdentity::getPublicKey).collect(Collectors.toList());
+    }
+
+    private static AssetContract.Commands.Settle settle(Map<String, Map<Party, Long>> cash,
+                                                       Map<String, Map<Party, Long>> stock) {
+        return new AssetContract.Commands.Settle(cash, stock);
+    }
+
+    /** One asset's net positions, in units, for two parties. */
+    private static Map<String, Map<Party, Long>> nets(String code, TestIdentity first, double firstNet,
+                                                      TestIdentity second, double secondNet) {
+        // The command is serialized into the transaction, which needs maps with a stable iteration order.
+        final Map<Party, Long> nets = new LinkedHashMap<>();
+        nets.put(first.getParty(), Asset.toQuantity(firstNet));
+        nets.put(second.getParty(), Asset.toQuantity(secondNet));
+        return Collections.singletonMap(code, nets);
+    }
+}
@@ -0,0 +1,7 @@
+#!/bin/bash
+set -x
+
+partyName=${1:-O=PartyB,L=New York,C=US}
+curl -H "Content-Type: application/json" \
+     -d "[{\"currency\": \"USD\", \"amount\": 100.00, \"partyName\": \"${partyName}\"}, {\"currency\": \"USD\", \"amount\": 250.00, \"partyName\": \"${partyName}\"}]" \
+     localhost:10050/create-cash/batch
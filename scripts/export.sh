@@ -0,0 +1,6 @@
+#!/bin/bash
+set -x
+
+# Usage: export.sh [states|cash|stocks] > positions.ndjson
+kind=${1:-states}
+curl --compressed --no-buffer localhost:10050/export/${kind}
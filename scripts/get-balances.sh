@@ -0,0 +1,5 @@
+#!/bin/bash
+set -x
+
+# Usage: get-balances.sh [owner] [currency]
+curl -G localhost:10050/balances ${1:+--data-urlencode "owner=$1"} ${2:+--data-urlencode "currency=$2"}
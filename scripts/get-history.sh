@@ -0,0 +1,7 @@
+#!/bin/bash
+set -x
+
+# Usage: get-history.sh [cash|stocks] [owner] [from] [after]
+kind=${1:-stocks}
+curl --compressed --no-buffer -G localhost:10050/history/${kind} \
+     ${2:+--data-urlencode "owner=$2"} ${3:+--data-urlencode "from=$3"} ${4:+--data-urlencode "after=$4"}
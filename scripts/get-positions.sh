@@ -0,0 +1,5 @@
+#!/bin/bash
+set -x
+
+# Usage: get-positions.sh [owner] [ticker]
+curl -G localhost:10050/positions ${1:+--data-urlencode "owner=$1"} ${2:+--data-urlencode "ticker=$2"}
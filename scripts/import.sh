@@ -0,0 +1,10 @@
+#!/bin/bash
+set -x
+
+# Usage: import.sh positions.csv|positions.ndjson
+file=${1:?positions file}
+case "${file}" in
+    *.csv) contentType=text/csv ;;
+    *) contentType=application/x-ndjson ;;
+esac
+curl --no-buffer -H "Content-Type: ${contentType}" -T "${file}" -X POST localhost:10050/import
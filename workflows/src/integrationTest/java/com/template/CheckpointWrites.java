@@ -0,0 +1,89 @@
+package com.template;
+
+import org.h2.api.Trigger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An H2 row trigger on {@code node_checkpoints} that counts checkpoint writes and their size, for
+ * {@link FlowPerformanceTest}. A flow's checkpoint row is rewritten in place at every suspension, so the table itself
+ * only ever shows the latest one.
+ */
+public class CheckpointWrites implements Trigger {
+    private static final LongAdder writes = new LongAdder();
+    private static final LongAdder bytes = new LongAdder();
+    private static final AtomicLong largest = new AtomicLong();
+
+    private int valueColumn = -1;
+
+    static void reset() {
+        writes.reset();
+        bytes.reset();
+        largest.set(0);
+    }
+
+    static long writes() {
+        return writes.sum();
+    }
+
+    static long bytes() {
+        return bytes.sum();
+    }
+
+    static long largest() {
+        return largest.get();
+    }
+
+    @Override
+    public void init(Connection connection, String schema, String trigger, String table, boolean before, int type)
+            throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(null, schema, table, null)) {
+            while (columns.next()) {
+                if ("CHECKPOINT_VALUE".equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+                    valueColumn = columns.getInt("ORDINAL_POSITION") - 1;
+                }
+            }
+        }
+        if (valueColumn < 0) throw new SQLException(table + " has no checkpoint_value column");
+    }
+
+    @Override
+    public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (newRow == null) return;
+        final long size = size(newRow[valueColumn]);
+        writes.increment();
+        bytes.add(size);
+        largest.accumulateAndGet(size, Math::max);
+    }
+
+    private static long size(Object value) throws SQLException {
+        if (value instanceof byte[]) return ((byte[]) value).length;
+        if (value instanceof Blob) return ((Blob) value).length();
+        if (value instanceof InputStream) {
+            try (InputStream in = (InputStream) value) {
+                final byte[] buffer = new byte[8192];
+                long size = 0;
+                for (int read; (read = in.read(buffer)) >= 0; ) size += read;
+                return size;
+            } catch (IOException e) {
+                throw new SQLException("Could not read checkpoint", e);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
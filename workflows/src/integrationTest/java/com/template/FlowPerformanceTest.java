@@ -0,0 +1,297 @@
+package com.template;
+
+import com.dtcc.tril.workshop.flows.BatchIssueCashFlow;
+import com.dtcc.tril.workshop.flows.BatchIssueStockFlow;
+import com.dtcc.tril.workshop.flows.IssueCashFlow;
+import com.dtcc.tril.workshop.flows.IssueStockFlow;
+import com.dtcc.tril.workshop.flows.TransferFlow;
+import com.dtcc.tril.workshop.queries.AssetQueries;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.MockNetworkParameters;
+import net.corda.testing.node.MockNodeParameters;
+import net.corda.testing.node.StartedMockNode;
+import net.corda.testing.node.TestCordapp;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput of the issue and transfer flows on an in-process MockNetwork, at growing vault sizes and concurrency.
+ *
+ * Each scenario runs a fixed number of flows from PartyA with at most {@code concurrency} in flight and reports
+ * flows/sec, the peak number of checkpoints on PartyA and the time to run the transfer input lookup against the vault,
+ * along with the checkpoints PartyA writes per flow and their mean and largest size in bytes, counted by the
+ * {@link CheckpointWrites} trigger. A scenario fails when its throughput falls more than {@code tolerance} below the
+ * value in flow-performance-baseline.properties, or its mean checkpoint size rises more than {@code tolerance} above
+ * the {@code .checkpointBytes} value there. Scenarios with no recorded value are reported and not checked. Run with
+ * {@code ./gradlew workflows:integrationTest -PrecordBaseline} to write the measured values over the baseline instead.
+ */
+public class FlowPerformanceTest {
+    private static final Logger logger = LoggerFactory.getLogger(FlowPerformanceTest.class);
+
+    private static final int FLOWS_PER_SCENARIO = 40;
+    private static final int[] VAULT_SIZES = {100, 1000};
+    private static final int[] CONCURRENCY = {1, 8};
+    private static final int QUERY_REPETITIONS = 50;
+    private static final int SEED_BATCH_SIZE = 500;
+
+    private static final String BASELINE = "flow-performance-baseline.properties";
+    private static final String RECORD_BASELINE = "flowPerformance.recordBaseline";
+
+    private static final Properties baseline = new Properties();
+    private static final Properties measured = new Properties();
+
+    private static MockNetwork network;
+    private static StartedMockNode nodeA;
+    private static StartedMockNode nodeB;
+    private static Party partyA;
+    private static Party partyB;
+    private static int seeded;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        network = new MockNetwork(new MockNetworkParameters()
+                .withCordappsForAllNodes(ImmutableList.of(
+                        TestCordapp.findCordapp("com.dtcc.tril.workshop.contracts"),
+                        TestCordapp.findCordapp("com.dtcc.tril.workshop.flows")))
+                .withThreadPerNode(true));
+        nodeA = network.createNode(new MockNodeParameters().withLegalName(new CordaX500Name("PartyA", "London", "GB")));
+        nodeB = network.createNode(new MockNodeParameters().withLegalName(new CordaX500Name("PartyB", "New York", "US")));
+        partyA = nodeA.getInfo().getLegalIdentities().get(0);
+        partyB = nodeB.getInfo().getLegalIdentities().get(0);
+        nodeA.transaction(() -> {
+            try (Statement statement = nodeA.getServices().jdbcSession().createStatement()) {
+                statement.execute("CREATE TRIGGER checkpoint_writes AFTER INSERT, UPDATE ON node_checkpoints "
+                        + "FOR EACH ROW CALL \"" + CheckpointWrites.class.getName() + "\"");
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not install the checkpoint trigger", e);
+            }
+            return null;
+        });
+
+        try (InputStream in = FlowPerformanceTest.class.getClassLoader().getResourceAsStream(BASELINE)) {
+            if (in != null) baseline.load(in);
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        if (network != null) network.stopNodes();
+
+        final String recordTo = System.getProperty(RECORD_BASELINE);
+        if (recordTo != null) {
+            measured.setProperty("tolerance", baseline.getProperty("tolerance", "0.25"));
+            try (OutputStream out = Files.newOutputStream(Paths.get(recordTo))) {
+                measured.store(out, "Minimum flows/sec and mean checkpoint size per scenario, recorded by "
+                        + "FlowPerformanceTest");
+            }
+        }
+    }
+
+    @Test
+    public void issueCash() throws Exception {
+        measure("issueCash", i -> new IssueCashFlow.Initiator("USD", 3 + i, partyB));
+    }
+
+    @Test
+    public void issueStock() throws Exception {
+        measure("issueStock", i -> new IssueStockFlow.Initiator("MSFT", 1 + i, partyB));
+    }
+
+    @Test
+    public void transfer() throws Exception {
+        // Every transfer consumes a Cash state owned by PartyA and a Stock state owned by PartyB.
+        issue(VAULT_SIZES.length * CONCURRENCY.length * FLOWS_PER_SCENARIO, "XFER", 1.0, partyA, partyB);
+        measure("transfer", i -> new TransferFlow.Initiator(
+                new Cash("USD", 1.0, partyA), new Stock("XFER", 1.0, partyB)));
+    }
+
+    private static void measure(String operation, IntFunction<FlowLogic<?>> flow) throws Exception {
+        final List<String> regressions = new ArrayList<>();
+        final List<String> unrecorded = new ArrayList<>();
+        for (int vaultSize : VAULT_SIZES) {
+            seedVault(vaultSize);
+            final double queryMillis = queryMillis();
+            for (int concurrency : CONCURRENCY) {
+                final Result result = run(flow, concurrency);
+                final String key = operation + ".vault" + vaultSize + ".concurrency" + concurrency;
+                logger.info(String.format("%s: %.1f flows/sec, peak checkpoints %d, vault query %.2f ms, "
+                                + "%.1f checkpoints/flow of %d bytes mean, %d bytes largest",
+                        key, result.flowsPerSecond, result.peakCheckpoints, queryMillis,
+                        result.checkpointsPerFlow, result.checkpointBytes, result.largestCheckpoint));
+                measured.setProperty(key, String.format("%.1f", result.flowsPerSecond));
+                measured.setProperty(key + ".checkpointsPerFlow", String.format("%.1f", result.checkpointsPerFlow));
+                measured.setProperty(key + ".checkpointBytes", Long.toString(result.checkpointBytes));
+
+                assertEquals(key + " left checkpoints behind", 0, checkpoints(nodeA));
+                final String expected = baseline.getProperty(key);
+                if (expected == null) {
+                    unrecorded.add(key);
+                } else {
+                    final double floor = Double.parseDouble(expected) * (1 - tolerance());
+                    if (result.flowsPerSecond < floor) {
+                        regressions.add(String.format("%s: %.1f flows/sec is below the baseline of %s (floor %.1f)",
+                                key, result.flowsPerSecond, expected, floor));
+                    }
+                }
+                final String expectedBytes = baseline.getProperty(key + ".checkpointBytes");
+                if (expectedBytes == null) {
+                    unrecorded.add(key + ".checkpointBytes");
+                } else {
+                    final double ceiling = Double.parseDouble(expectedBytes) * (1 + tolerance());
+                    if (result.checkpointBytes > ceiling) {
+                        regressions.add(String.format("%s: %d bytes per checkpoint is above the baseline of %s "
+                                + "(ceiling %.0f)", key, result.checkpointBytes, expectedBytes, ceiling));
+                    }
+                }
+            }
+        }
+        if (!unrecorded.isEmpty() && System.getProperty(RECORD_BASELINE) == null) {
+            logger.warn("No baseline recorded for {}; run with -PrecordBaseline to record one", unrecorded);
+        }
+        // Recording a new baseline should not be blocked by the old one.
+        if (System.getProperty(RECORD_BASELINE) == null) {
+            assertTrue(String.join("\n", regressions), regressions.isEmpty());
+        }
+    }
+
+    private static Result run(IntFunction<FlowLogic<?>> flow, int concurrency) throws Exception {
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final CountDownLatch finished = new CountDownLatch(FLOWS_PER_SCENARIO);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong peakCheckpoints = new AtomicLong();
+
+        final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleWithFixedDelay(
+                () -> peakCheckpoints.accumulateAndGet(checkpoints(nodeA), Math::max), 0, 20, TimeUnit.MILLISECONDS);
+        try {
+            CheckpointWrites.reset();
+            final long start = System.nanoTime();
+            for (int i = 0; i < FLOWS_PER_SCENARIO; i++) {
+                inFlight.acquire();
+                nodeA.startFlow(flow.apply(i)).toCompletableFuture().whenComplete((result, error) -> {
+                    if (error != null) failure.compareAndSet(null, error);
+                    inFlight.release();
+                    finished.countDown();
+                });
+            }
+            assertTrue("Flows did not finish in time", finished.await(5, TimeUnit.MINUTES));
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            assertNull("A flow failed: " + failure.get(), failure.get());
+
+            network.waitQuiescent();
+            final long writes = CheckpointWrites.writes();
+            return new Result(FLOWS_PER_SCENARIO / seconds, peakCheckpoints.get(),
+                    writes / (double) FLOWS_PER_SCENARIO, writes == 0 ? 0 : CheckpointWrites.bytes() / writes,
+                    CheckpointWrites.largest());
+        } finally {
+            sampler.shutdownNow();
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Issues Cash and Stock to PartyA until it holds {@code size} of each. Seeded states are worth 2.0, so they are
+     * never picked as transfer inputs.
+     */
+    private static void seedVault(int size) throws Exception {
+        if (size > seeded) {
+            issue(size - seeded, "SEED", 2.0, partyA, partyA);
+            seeded = size;
+        }
+    }
+
+    private static void issue(int count, String ticker, double amount, Party cashOwner, Party stockOwner) throws Exception {
+        for (int issued = 0; issued < count; issued += SEED_BATCH_SIZE) {
+            final int size = Math.min(SEED_BATCH_SIZE, count - issued);
+            final List<BatchIssueCashFlow.Entry> cash = new ArrayList<>(size);
+            final List<BatchIssueStockFlow.Entry> stock = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                cash.add(new BatchIssueCashFlow.Entry("USD", amount, cashOwner));
+                stock.add(new BatchIssueStockFlow.Entry(ticker, amount, stockOwner));
+            }
+            nodeA.startFlow(new BatchIssueCashFlow.Initiator(cash)).get();
+            nodeA.startFlow(new BatchIssueStockFlow.Initiator(stock)).get();
+        }
+        network.waitQuiescent();
+    }
+
+    /** Mean time of the TransferFlow input lookup against PartyA's vault. */
+    private static double queryMillis() {
+        final QueryCriteria criteria = AssetQueries.cashCriteria(partyA, "USD", 2.0);
+        final PageSpecification firstMatch = new PageSpecification(DEFAULT_PAGE_NUM, 1);
+        final long start = System.nanoTime();
+        for (int i = 0; i < QUERY_REPETITIONS; i++) {
+            nodeA.transaction(() -> nodeA.getServices().getVaultService().queryBy(Cash.class, criteria, firstMatch));
+        }
+        return (System.nanoTime() - start) / 1e6 / QUERY_REPETITIONS;
+    }
+
+    private static long checkpoints(StartedMockNode node) {
+        return node.transaction(() -> {
+            try (Statement statement = node.getServices().jdbcSession().createStatement();
+                 ResultSet count = statement.executeQuery("SELECT COUNT(*) FROM node_checkpoints")) {
+                count.next();
+                return count.getLong(1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not count checkpoints", e);
+            }
+        });
+    }
+
+    private static double tolerance() {
+        return Double.parseDouble(baseline.getProperty("tolerance", "0.25"));
+    }
+
+    private static final class Result {
+        final double flowsPerSecond;
+        final long peakCheckpoints;
+        final double checkpointsPerFlow;
+        final long checkpointBytes;
+        final long largestCheckpoint;
+
+        Result(double flowsPerSecond, long peakCheckpoints, double checkpointsPerFlow, long checkpointBytes,
+               long largestCheckpoint) {
+            this.flowsPerSecond = flowsPerSecond;
+            this.peakCheckpoints = peakCheckpoints;
+            this.checkpointsPerFlow = checkpointsPerFlow;
+            this.checkpointBytes = checkpointBytes;
+            this.largestCheckpoint = largestCheckpoint;
+        }
+    }
+}
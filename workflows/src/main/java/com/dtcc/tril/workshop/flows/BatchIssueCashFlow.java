@@ -0,0 +1,73 @@
+package com.dtcc.tril.workshop.flows;
+
+import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.states.Cash;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.InitiatedBy;
+import net.corda.core.flows.InitiatingFlow;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+/** Issues many Cash states, one transaction per receiver and currency; see {@link BatchIssueFlow}. */
+public class BatchIssueCashFlow {
+    /**
+     * One Cash state to issue.
+     */
+    @CordaSerializable
+    public static class Entry implements BatchIssueFlow.Entry {
+        private final String currency;
+        private final double amount;
+        private final Party receiver;
+
+        public Entry(String currency, double amount, Party receiver) {
+            this.currency = currency;
+            this.amount = amount;
+            this.receiver = receiver;
+        }
+
+        public String getCurrency() { return currency; }
+        public double getAmount() { return amount; }
+        public Party getReceiver() { return receiver; }
+
+        @Override
+        public String getCode() { return currency; }
+    }
+
+    // ******************
+    // * Initiator flow *
+    // ******************
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends BatchIssueFlow.Initiator<Entry> {
+
+        // public constructor
+        public Initiator(List<Entry> entries) {
+            super(entries);
+        }
+
+        @Override
+        protected Cash output(Entry entry) {
+            return new Cash(entry.getCurrency(), entry.getAmount(), entry.getReceiver());
+        }
+
+        @Override
+        protected CommandData command() {
+            return new AssetContract.Commands.IssueCash();
+        }
+    }
+
+    // ******************
+    // * Responder flow *
+    // ******************
+    @InitiatedBy(Initiator.class)
+    public static class Responder extends BatchIssueFlow.Responder {
+
+        public Responder(FlowSession otherPartySession) {
+            super(otherPartySession);
+        }
+    }
+}
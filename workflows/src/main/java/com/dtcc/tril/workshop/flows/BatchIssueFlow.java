@@ -0,0 +1,216 @@
+package com.dtcc.tril.workshop.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.dtcc.tril.workshop.metrics.FlowMetrics;
+import com.dtcc.tril.workshop.notary.NotarySelector;
+import com.dtcc.tril.workshop.states.Asset;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What {@link BatchIssueCashFlow} and {@link BatchIssueStockFlow} share. The entries are grouped by receiver and
+ * code, and each group is issued in its own transaction, one after the other. A group that fails does not stop the
+ * ones after it, so the flow returns one {@link Group} per transaction saying whether it committed; callers retry only
+ * the entries of the groups that did not.
+ */
+public final class BatchIssueFlow {
+    private BatchIssueFlow() {}
+
+    /** One state to issue. */
+    public interface Entry {
+        String getCode();
+        double getAmount();
+        Party getReceiver();
+    }
+
+    /**
+     * The outcome of one group of entries, all for the same receiver and code. Exactly one of {@code transaction},
+     * when the group committed, and {@code error}, when it provably did not, is set.
+     */
+    @CordaSerializable
+    public static class Group {
+        private final Party receiver;
+        private final String code;
+        private final List<Integer> entries;
+        private final SignedTransaction transaction;
+        private final String error;
+
+        public Group(Party receiver, String code, List<Integer> entries, SignedTransaction transaction,
+                     String error) {
+            this.receiver = receiver;
+            this.code = code;
+            this.entries = entries;
+            this.transaction = transaction;
+            this.error = error;
+        }
+
+        public Party getReceiver() { return receiver; }
+        public String getCode() { return code; }
+        /** Indices into the flow's entries of the states in this group, in the order they were given. */
+        public List<Integer> getEntries() { return entries; }
+        public SignedTransaction getTransaction() { return transaction; }
+        public String getError() { return error; }
+        public boolean isCommitted() { return transaction != null; }
+    }
+
+    /** Issues each group of entries in turn; subclasses supply the state to issue and the command. */
+    public abstract static class Initiator<E extends Entry> extends FlowLogic<List<Group>> {
+
+        private final Step VERIFYING = FlowSteps.verifying();
+        private final Step SIGNING = FlowSteps.signing();
+        private final Step GATHERING_SIGS = FlowSteps.gatheringSignatures();
+        private final Step FINALISING = FlowSteps.finalising();
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                VERIFYING, SIGNING, GATHERING_SIGS, FINALISING);
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        private final List<E> entries;
+
+        protected Initiator(List<E> entries) {
+            this.entries = entries;
+        }
+
+        /** The state {@code entry} issues, owned by its receiver. */
+        protected abstract Asset output(E entry);
+
+        protected abstract CommandData command();
+
+        @Suspendable
+        @Override
+        public List<Group> call() throws FlowException {
+            final FlowMetrics.Steps steps = getServiceHub().cordaService(FlowMetrics.class).begin(this);
+            try {
+                if (entries.isEmpty()) throw new FlowException("Nothing to issue");
+
+                // Step 1. Group the entries by receiver and code: each receiver signs one transaction per code, which
+                // goes to the notary chosen for that code.
+                final Map<List<Object>, List<Integer>> byReceiver = new LinkedHashMap<>();
+                for (int i = 0; i < entries.size(); i++) {
+                    final E entry = entries.get(i);
+                    byReceiver.computeIfAbsent(Arrays.asList(entry.getReceiver(), entry.getCode()),
+                            key -> new ArrayList<>())
+                            .add(i);
+                }
+                final List<List<Integer>> groups = new ArrayList<>(byReceiver.values());
+
+                final List<Group> results = new ArrayList<>(groups.size());
+                for (int i = 0; i < groups.size(); i++) {
+                    results.add(issue(groups.get(i), steps));
+                }
+                return steps.completed(results);
+            } catch (FlowException | RuntimeException e) {
+                steps.failed();
+                throw e;
+            }
+        }
+
+        @Suspendable
+        private Group issue(List<Integer> group, FlowMetrics.Steps steps) {
+            final E first = entries.get(group.get(0));
+            final NotarySelector notaries = getServiceHub().cordaService(NotarySelector.class);
+            final Party notary = notaries.choose(first.getCode());
+            SecureHash id = null;
+            try {
+                final SignedTransaction ptx = propose(notary, group, steps);
+                id = ptx.getId();
+                return new Group(first.getReceiver(), first.getCode(), group, finalise(ptx, steps), null);
+            } catch (FlowException | RuntimeException e) {
+                // Finality records the transaction before it distributes it, so a failure after that has committed.
+                final SignedTransaction recorded = id == null
+                        ? null
+                        : getServiceHub().getValidatedTransactions().getTransaction(id);
+                getLogger().warn("Issuing {} {} to {} {}", group.size(), first.getCode(), first.getReceiver(),
+                        recorded == null ? "failed" : "committed but did not complete", e);
+                return new Group(first.getReceiver(), first.getCode(), group, recorded,
+                        recorded == null ? String.valueOf(e.getMessage()) : null);
+            } finally {
+                notaries.release(notary);
+            }
+        }
+
+        /** Builds, verifies and signs the issuance of one group; nothing here suspends or commits. */
+        private SignedTransaction propose(Party notary, List<Integer> group, FlowMetrics.Steps steps)
+                throws FlowException {
+            final Party sender = getOurIdentity();
+            final Party receiver = entries.get(group.get(0)).getReceiver();
+
+            // Step 2. Create a new TransactionBuilder object with one output per entry.
+            final TransactionBuilder builder = new TransactionBuilder(notary);
+            for (int index : group) {
+                builder.addOutputState(output(entries.get(index)).withParticipant(sender));
+            }
+            builder.addCommand(command(), Arrays.asList(sender.getOwningKey(), receiver.getOwningKey()));
+
+            // Step 3. Verify and sign it with our KeyPair.
+            steps.next(VERIFYING);
+            builder.verify(getServiceHub());
+            steps.next(SIGNING);
+            return getServiceHub().signInitialTransaction(builder);
+        }
+
+        @Suspendable
+        private SignedTransaction finalise(SignedTransaction ptx, FlowMetrics.Steps steps) throws FlowException {
+            final Party sender = getOurIdentity();
+            final Party receiver = ((Asset) ptx.getTx().getOutputStates().get(0)).getOwner();
+
+            // Step 4. Collect the receiver's signature using the SignTransactionFlow.
+            final List<FlowSession> sessions = receiver.equals(sender)
+                    ? Collections.emptyList()
+                    : Collections.singletonList(initiateFlow(receiver));
+
+            steps.next(GATHERING_SIGS);
+            final SignedTransaction stx = subFlow(
+                    new CollectSignaturesFlow(ptx, sessions, GATHERING_SIGS.childProgressTracker()));
+
+            // Step 5. Assuming no exceptions, we can now finalise the transaction
+            steps.next(FINALISING);
+            return subFlow(new FinalityFlow(stx, sessions, FINALISING.childProgressTracker()));
+        }
+    }
+
+    /** Signs and records the receiver's side of one group. */
+    public abstract static class Responder extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartySession;
+
+        protected Responder(FlowSession otherPartySession) {
+            this.otherPartySession = otherPartySession;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) {}
+            }
+            final SignTxFlow signTxFlow = new SignTxFlow(otherPartySession, SignTransactionFlow.Companion.tracker());
+            final SecureHash txId = subFlow(signTxFlow).getId();
+
+            return subFlow(new ReceiveFinalityFlow(otherPartySession, txId));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.dtcc.tril.workshop.flows;
+
+import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.InitiatedBy;
+import net.corda.core.flows.InitiatingFlow;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+/** Issues many Stock states, one transaction per receiver and ticker; see {@link BatchIssueFlow}. */
+public class BatchIssueStockFlow {
+    /**
+     * One Stock state to issue.
+     */
+    @CordaSerializable
+    public static class Entry implements BatchIssueFlow.Entry {
+        private final String ticker;
+        private final double amount;
+        private final Party receiver;
+
+        public Entry(String ticker, double amount, Party receiver) {
+            this.ticker = ticker;
+            this.amount = amount;
+            this.receiver = receiver;
+        }
+
+        public String getTicker() { return ticker; }
+        public double getAmount() { return amount; }
+        public Party getReceiver() { return receiver; }
+
+        @Override
+        public String getCode() { return ticker; }
+    }
+
+    // ******************
+    // * Initiator flow *
+    // ******************
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends BatchIssueFlow.Initiator<Entry> {
+
+        // public constructor
+        public Initiator(List<Entry> entries) {
+            super(entries);
+        }
+
+        @Override
+        protected Stock output(Entry entry) {
+            return new Stock(entry.getTicker(), entry.getAmount(), entry.getReceiver());
+        }
+
+        @Override
+        protected CommandData command() {
+            return new AssetContract.Commands.IssueStock();
+        }
+    }
+
+    // ******************
+    // * Responder flow *
+    // ******************
+    @InitiatedBy(Initiator.class)
+    public static class Responder extends BatchIssueFlow.Responder {
+
+        public Responder(FlowSession otherPartySession) {
+            super(otherPartySession);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.dtcc.tril.workshop.flows;
+
+import net.corda.core.flows.AbstractStateReplacementFlow;
+import net.corda.core.flows.CollectSignaturesFlow;
+import net.corda.core.flows.FinalityFlow;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+
+/**
+ * The progress tracker steps shared by the initiating flows. Each flow creates its own steps, since steps with child
+ * trackers must not be shared between running flows; the labels are shared so that step timings line up.
+ */
+final class FlowSteps {
+    private FlowSteps() {}
+
+    static Step queryingVault() {
+        return new Step("Selecting inputs from the vault.");
+    }
+
+    static Step changingNotary() {
+        return new Step("Moving inputs to a common notary.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return AbstractStateReplacementFlow.Instigator.Companion.tracker();
+            }
+        };
+    }
+
+    static Step verifying() {
+        return new Step("Verifying the transaction.");
+    }
+
+    static Step signing() {
+        return new Step("Signing the transaction with our private key.");
+    }
+
+    static Step gatheringSignatures() {
+        return new Step("Gathering the counterparties' signatures.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+    }
+
+    static Step finalising() {
+        return new Step("Obtaining notary signature and recording transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+    }
+}
@@ -2,6 +2,8 @@ package com.dtcc.tril.workshop.flows;
 
 import co.paralleluniverse.fibers.Suspendable;
 import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.metrics.FlowMetrics;
+import com.dtcc.tril.workshop.notary.NotarySelector;
 import com.dtcc.tril.workshop.states.Stock;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
@@ -9,10 +11,11 @@ import net.corda.core.identity.Party;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -24,19 +27,23 @@ public class IssueStockFlow {
     @StartableByRPC
     public static class Initiator extends FlowLogic<SignedTransaction> {
 
-        // We will not use these ProgressTracker for this Hello-World sample
-        private final ProgressTracker progressTracker = new ProgressTracker();
+        private final Step VERIFYING = FlowSteps.verifying();
+        private final Step SIGNING = FlowSteps.signing();
+        private final Step GATHERING_SIGS = FlowSteps.gatheringSignatures();
+        private final Step FINALISING = FlowSteps.finalising();
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                VERIFYING, SIGNING, GATHERING_SIGS, FINALISING);
 
         @Override
         public ProgressTracker getProgressTracker() {
             return progressTracker;
         }
 
-        // private variables
-        private Party sender;
-        private Party receiver;
-        private double amount;
-        private String ticker;
+        // private variables: all that this flow carries across its suspensions besides the transaction itself.
+        private final Party receiver;
+        private final double amount;
+        private final String ticker;
 
         // public constructor
         public Initiator(String ticker, double amount, Party sendTo) {
@@ -48,14 +55,44 @@ public class IssueStockFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            this.sender = getOurIdentity();
+            final FlowMetrics.Steps steps = getServiceHub().cordaService(FlowMetrics.class).begin(this);
+            // Step 1. Choose a notary for the new state.
+            final NotarySelector notaries = getServiceHub().cordaService(NotarySelector.class);
+            final Party notary = notaries.choose(ticker);
+            try {
+                // Steps 2 to 5 do not suspend, so the state and builder they work with are never checkpointed.
+                final SignedTransaction ptx = propose(notary, steps);
+
+                // Step 6. Collect the other party's signature using the SignTransactionFlow. The receiver is the
+                // only other participant; issuing to ourselves needs no other signature.
+                if (receiver.equals(getOurIdentity())) {
+                    steps.next(FINALISING);
+                    return steps.completed(subFlow(new FinalityFlow(ptx, Collections.<FlowSession>emptyList(),
+                            FINALISING.childProgressTracker())));
+                }
+                final List<FlowSession> sessions = Collections.singletonList(initiateFlow(receiver));
+
+                steps.next(GATHERING_SIGS);
+                final SignedTransaction stx = subFlow(
+                        new CollectSignaturesFlow(ptx, sessions, GATHERING_SIGS.childProgressTracker()));
+
+                // Step 7. Assuming no exceptions, we can now finalise the transaction
+                steps.next(FINALISING);
+                return steps.completed(subFlow(new FinalityFlow(stx, sessions, FINALISING.childProgressTracker())));
+            } catch (FlowException | RuntimeException e) {
+                steps.failed();
+                throw e;
+            } finally {
+                notaries.release(notary);
+            }
+        }
 
-            // Step 1. Get a reference to the notary service on our network and our key pair.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+        /** Composes, verifies and signs the issuance on {@code notary}. */
+        private SignedTransaction propose(Party notary, FlowMetrics.Steps steps) throws FlowException {
+            final Party sender = getOurIdentity();
 
             // Compose the Stock state to be issued
-            final Stock output = new Stock(ticker, amount, receiver);
-            output.addParticipant(sender);
+            final Stock output = new Stock(ticker, amount, receiver).withParticipant(sender);
 
             // Step 3. Create a new TransactionBuilder object.
             final TransactionBuilder builder = new TransactionBuilder(notary);
@@ -64,23 +101,13 @@ public class IssueStockFlow {
             // transaction builder.
             builder.addOutputState(output);
             builder.addCommand(new AssetContract.Commands.IssueStock(),
-                    Arrays.asList(this.sender.getOwningKey(), this.receiver.getOwningKey()));
+                    Arrays.asList(sender.getOwningKey(), receiver.getOwningKey()));
 
             // Step 5. Verify and sign it with our KeyPair.
+            steps.next(VERIFYING);
             builder.verify(getServiceHub());
-            final SignedTransaction ptx = getServiceHub().signInitialTransaction(builder);
-
-            // Step 6. Collect the other party's signature using the SignTransactionFlow.
-            List<FlowSession> sessions = output.getParticipants().stream()
-                    .map(el -> (Party) el)
-                    .filter(el -> !el.equals(sender))
-                    .map(this::initiateFlow)
-                    .collect(Collectors.toList());
-
-            SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, sessions));
-
-            // Step 7. Assuming no exceptions, we can now finalise the transaction
-            return subFlow(new FinalityFlow(stx, sessions));
+            steps.next(SIGNING);
+            return getServiceHub().signInitialTransaction(builder);
         }
     }
 
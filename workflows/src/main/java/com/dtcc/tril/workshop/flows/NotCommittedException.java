@@ -0,0 +1,18 @@
+package com.dtcc.tril.workshop.flows;
+
+import net.corda.core.flows.FlowException;
+
+/**
+ * Thrown by a flow that failed before its transaction could commit, such as one rejected by the notary. Any other
+ * failure may have come after the transaction committed, so only this one makes it safe to carry out the same change
+ * again by other means.
+ */
+public class NotCommittedException extends FlowException {
+    public NotCommittedException(String message) {
+        super(message);
+    }
+
+    public NotCommittedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,467 @@
+package com.dtcc.tril.workshop.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.metrics.FlowMetrics;
+import com.dtcc.tril.workshop.queries.AssetQueries;
+import com.dtcc.tril.workshop.states.Asset;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Delivery-versus-payment settlement of any number of cash and stock legs between any number of parties in one
+ * atomic transaction.
+ *
+ * Offsetting legs between the same two parties in the same currency or ticker are netted before the transaction is
+ * built, so each pair of parties moves at most one amount of each asset. As with {@link TransferFlow}, the states
+ * being delivered must be visible in the initiator's vault; they are soft-locked while the flow runs, and a notary
+ * conflict is retried with freshly selected inputs.
+ *
+ * The flow fails with {@link NotCommittedException} when it fails before finality or the notary rejects the
+ * transaction. Any other failure during finality may have come after the transaction committed.
+ */
+public class SettlementFlow {
+    @CordaSerializable
+    public enum Kind { CASH, STOCK }
+
+    /**
+     * One delivery: {@code from} gives {@code amount} of the currency or ticker {@code code} to {@code to}.
+     */
+    @CordaSerializable
+    public static class Leg {
+        private final Kind kind;
+        private final String code;
+        private final double amount;
+        private final Party from;
+        private final Party to;
+
+        public Leg(Kind kind, String code, double amount, Party from, Party to) {
+            this.kind = kind;
+            this.code = code;
+            this.amount = amount;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Kind getKind() { return kind; }
+        public String getCode() { return code; }
+        public double getAmount() { return amount; }
+        public Party getFrom() { return from; }
+        public Party getTo() { return to; }
+    }
+
+    /**
+     * Nets offsetting legs. The result has at most one leg per asset and unordered pair of parties, and no leg whose
+     * net quantity is zero.
+     */
+    public static List<Leg> net(List<Leg> legs) {
+        // Keyed by kind, code and the pair of parties in a canonical order; positive quantities flow from the first.
+        // Netting in fixed-point quantities makes offsetting legs cancel exactly.
+        final Map<List<Object>, Long> netted = new LinkedHashMap<>();
+        for (Leg leg : legs) {
+            final boolean canonical = leg.getFrom().getName().toString().compareTo(leg.getTo().getName().toString()) <= 0;
+            final Party first = canonical ? leg.getFrom() : leg.getTo();
+            final Party second = canonical ? leg.getTo() : leg.getFrom();
+            final long quantity = Asset.toQuantity(leg.getAmount());
+            netted.merge(Arrays.asList(leg.getKind(), leg.getCode(), first, second),
+                    canonical ? quantity : -quantity, Long::sum);
+        }
+
+        final List<Leg> result = new ArrayList<>(netted.size());
+        for (Map.Entry<List<Object>, Long> entry : netted.entrySet()) {
+            final List<Object> key = entry.getKey();
+            final long quantity = entry.getValue();
+            if (quantity == 0) continue;
+            final Party first = (Party) key.get(2);
+            final Party second = (Party) key.get(3);
+            final double amount = Asset.toAmount(Math.abs(quantity));
+            result.add(quantity > 0
+                    ? new Leg((Kind) key.get(0), (String) key.get(1), amount, first, second)
+                    : new Leg((Kind) key.get(0), (String) key.get(1), amount, second, first));
+        }
+        return result;
+    }
+
+    /**
+     * Each party's net position in every currency or ticker of one kind, in thousandths of a unit, as carried by the
+     * {@link AssetContract.Commands.Settle} command. Positions that net to zero are left out.
+     */
+    public static Map<String, Map<Party, Long>> netPositions(List<Leg> legs, Kind kind) {
+        final Map<String, Map<Party, Long>> positions = new LinkedHashMap<>();
+        for (Leg leg : legs) {
+            if (leg.getKind() != kind) continue;
+            final long quantity = Asset.toQuantity(leg.getAmount());
+            final Map<Party, Long> code = positions.computeIfAbsent(leg.getCode(), key -> new LinkedHashMap<>());
+            code.merge(leg.getFrom(), -quantity, Long::sum);
+            code.merge(leg.getTo(), quantity, Long::sum);
+        }
+        for (Map<Party, Long> code : positions.values()) code.values().removeIf(net -> net == 0);
+        positions.values().removeIf(Map::isEmpty);
+        return positions;
+    }
+
+    // ******************
+    // * Initiator flow *
+    // ******************
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+
+        private final Step QUERYING_VAULT = FlowSteps.queryingVault();
+        private final Step CHANGING_NOTARY = FlowSteps.changingNotary();
+        private final Step VERIFYING = FlowSteps.verifying();
+        private final Step SIGNING = FlowSteps.signing();
+        private final Step GATHERING_SIGS = FlowSteps.gatheringSignatures();
+        private final Step FINALISING = FlowSteps.finalising();
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                QUERYING_VAULT, CHANGING_NOTARY, VERIFYING, SIGNING, GATHERING_SIGS, FINALISING);
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        // How many candidate input states to load at a time while selecting.
+        private static final PageSpecification CANDIDATES = new PageSpecification(DEFAULT_PAGE_NUM, 50);
+
+        // A notary conflict means another transaction spent one of our inputs first; retry with fresh inputs.
+        private static final int MAX_ATTEMPTS = 5;
+        private static final long BASE_BACKOFF_MILLIS = 100;
+        private static final long MAX_BACKOFF_MILLIS = 2000;
+
+        // private variables
+        private final List<Leg> legs;
+        // The transaction being finalised, once the current attempt has got that far.
+        private SecureHash finalising;
+
+        // public constructor
+        public Initiator(List<Leg> legs) {
+            this.legs = legs;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final FlowMetrics.Steps steps = getServiceHub().cordaService(FlowMetrics.class).begin(this);
+            try {
+                final List<Leg> netLegs = net(legs);
+                if (netLegs.isEmpty()) throw new FlowException("All legs net to zero; nothing to settle");
+
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        finalising = null;
+                        return steps.completed(settle(netLegs, steps));
+                    } catch (NotaryException e) {
+                        if (!(e.getError() instanceof NotaryError.Conflict) || attempt == MAX_ATTEMPTS) throw e;
+                        // Drop the locks on inputs that are still good so the next selection can see them again.
+                        getServiceHub().getVaultService().softLockRelease(getRunId().getUuid(), null);
+                        sleep(backoff(attempt));
+                    }
+                }
+            } catch (NotaryException e) {
+                steps.failed();
+                throw new NotCommittedException(e.getMessage(), e);
+            } catch (FlowException | RuntimeException e) {
+                if (finalising == null) {
+                    steps.failed();
+                    throw new NotCommittedException(String.valueOf(e.getMessage()), e);
+                }
+                // Finality records the transaction before it distributes it, so a failure after that has committed.
+                final SignedTransaction recorded = getServiceHub().getValidatedTransactions().getTransaction(finalising);
+                if (recorded == null) {
+                    steps.failed();
+                    throw e;
+                }
+                getLogger().warn("Settlement {} committed but did not complete", finalising, e);
+                return steps.completed(recorded);
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction settle(List<Leg> netLegs, FlowMetrics.Steps steps) throws FlowException {
+            // Step 1. Select each payer's inputs for each asset it delivers.
+            steps.next(QUERYING_VAULT);
+            final List<List<Leg>> deliveries = new ArrayList<>(byPayerAndAsset(netLegs).values());
+            final List<List<StateAndRef<? extends Asset>>> selections = new ArrayList<>(deliveries.size());
+            for (List<Leg> payments : deliveries) {
+                final Leg first = payments.get(0);
+                selections.add(select(first.getKind(), first.getFrom(), first.getCode(), owed(payments)));
+            }
+
+            // Step 2. Settle on the notary most inputs already live on, and move the rest there.
+            final Party notary = commonNotary(selections);
+            for (int i = 0; i < selections.size(); i++) {
+                final List<StateAndRef<? extends Asset>> selection = selections.get(i);
+                for (int j = 0; j < selection.size(); j++) {
+                    if (!selection.get(j).getState().getNotary().equals(notary)) {
+                        steps.next(CHANGING_NOTARY);
+                        selection.set(j, moveTo(selection.get(j), notary));
+                        getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(),
+                                NonEmptySet.of(selection.get(j).getRef()));
+                    }
+                }
+            }
+
+            // Step 3. Create a new TransactionBuilder and add each payer's inputs, the deliveries and any change.
+            final TransactionBuilder builder = new TransactionBuilder(notary);
+            // We sign as the settlement agent even when we deliver nothing ourselves.
+            final Set<PublicKey> signers = new LinkedHashSet<>();
+            signers.add(getOurIdentity().getOwningKey());
+            final Set<Party> parties = new LinkedHashSet<>();
+            for (int i = 0; i < deliveries.size(); i++) {
+                final List<Leg> payments = deliveries.get(i);
+                final Leg first = payments.get(0);
+
+                for (Leg leg : payments) {
+                    builder.addOutputState(output(leg.getKind(), leg.getCode(), Asset.toQuantity(leg.getAmount()),
+                            leg.getTo(), leg.getFrom()));
+                    parties.add(leg.getTo());
+                }
+
+                long selected = 0;
+                for (StateAndRef<? extends Asset> input : selections.get(i)) {
+                    builder.addInputState(input);
+                    selected += input.getState().getData().getQuantity();
+                }
+                // Quantities are fixed-point, so the change is exact and the contract sees the amounts conserved.
+                final long change = selected - owed(payments);
+                if (change > 0) {
+                    builder.addOutputState(output(first.getKind(), first.getCode(), change, first.getFrom(), null));
+                }
+
+                signers.add(first.getFrom().getOwningKey());
+                parties.add(first.getFrom());
+            }
+            builder.addCommand(new AssetContract.Commands.Settle(
+                    netPositions(netLegs, Kind.CASH), netPositions(netLegs, Kind.STOCK)), new ArrayList<>(signers));
+
+            // Step 4. Verify and sign it with our KeyPair.
+            steps.next(VERIFYING);
+            builder.verify(getServiceHub());
+            steps.next(SIGNING);
+            final SignedTransaction ptx = getServiceHub().signInitialTransaction(builder);
+
+            // Step 5. Tell every other party whether it is a signer, send the signers the legs they are signing
+            // for, then collect their signatures.
+            final List<Party> counterparties = new ArrayList<>(parties);
+            counterparties.remove(getOurIdentity());
+            final List<FlowSession> sessions = new ArrayList<>();
+            final List<FlowSession> signerSessions = new ArrayList<>();
+            for (int i = 0; i < counterparties.size(); i++) {
+                final Party party = counterparties.get(i);
+                final FlowSession session = initiateFlow(party);
+                final boolean signer = signers.contains(party.getOwningKey());
+                session.send(signer);
+                sessions.add(session);
+                if (signer) {
+                    session.send(netLegs);
+                    signerSessions.add(session);
+                }
+            }
+
+            steps.next(GATHERING_SIGS);
+            final SignedTransaction stx = subFlow(
+                    new CollectSignaturesFlow(ptx, signerSessions, GATHERING_SIGS.childProgressTracker()));
+
+            // Step 6. Assuming no exceptions, we can now finalise the transaction
+            steps.next(FINALISING);
+            finalising = stx.getId();
+            return subFlow(new FinalityFlow(stx, sessions, FINALISING.childProgressTracker()));
+        }
+
+        /** Groups the net legs by payer and asset, since each payer's inputs cover all of its legs in that asset. */
+        private static Map<List<Object>, List<Leg>> byPayerAndAsset(List<Leg> netLegs) {
+            final Map<List<Object>, List<Leg>> grouped = new LinkedHashMap<>();
+            for (Leg leg : netLegs) {
+                grouped.computeIfAbsent(Arrays.asList(leg.getFrom(), leg.getKind(), leg.getCode()), key -> new ArrayList<>())
+                        .add(leg);
+            }
+            return grouped;
+        }
+
+        /** The total quantity a payer delivers in one asset. */
+        private static long owed(List<Leg> payments) {
+            long owed = 0;
+            for (Leg leg : payments) {
+                owed += Asset.toQuantity(leg.getAmount());
+            }
+            return owed;
+        }
+
+        /** The notary that the most selected inputs live on, so that as few as possible need moving. */
+        private static Party commonNotary(List<List<StateAndRef<? extends Asset>>> selections) {
+            final Map<Party, Integer> counts = new LinkedHashMap<>();
+            for (List<StateAndRef<? extends Asset>> selection : selections) {
+                for (StateAndRef<? extends Asset> input : selection) {
+                    counts.merge(input.getState().getNotary(), 1, Integer::sum);
+                }
+            }
+            return Collections.max(counts.entrySet(), Map.Entry.comparingByValue()).getKey();
+        }
+
+        /** Replaces {@code input} with the same state on {@code notary}, signed off by all of its participants. */
+        @Suspendable
+        @SuppressWarnings("unchecked")
+        private <T extends ContractState> StateAndRef<T> moveTo(StateAndRef<T> input, Party notary)
+                throws FlowException {
+            // The flow is typed StateAndRef<? extends T> from Java; the state it returns is the input's, re-notarised.
+            return (StateAndRef<T>) subFlow(
+                    new NotaryChangeFlow<>(input, notary, CHANGING_NOTARY.childProgressTracker()));
+        }
+
+        /** The new state for a delivery. The previous owner, if any, stays a participant so it keeps sight of it. */
+        private static Asset output(Kind kind, String code, long quantity, Party owner, Party previousOwner) {
+            final Asset output = kind == Kind.CASH
+                    ? new Cash(code, quantity, owner, null)
+                    : new Stock(code, quantity, owner, null);
+            return previousOwner == null ? output : output.withParticipant(previousOwner);
+        }
+
+        /**
+         * Selects and soft-locks unconsumed states of {@code owner} in {@code code} worth at least {@code quantity} in
+         * total, largest first so that as few states as possible are consumed. The locks are held under this flow's
+         * run id, so concurrent settlements and transfers never pick the same input, and are released when it ends.
+         */
+        private List<StateAndRef<? extends Asset>> select(Kind kind, Party owner, String code, long quantity)
+                throws FlowException {
+            final VaultService vault = getServiceHub().getVaultService();
+            final Class<? extends Asset> type = kind == Kind.CASH ? Cash.class : Stock.class;
+            final QueryCriteria criteria = AssetQueries.unlocked(kind == Kind.CASH
+                    ? AssetQueries.cashCriteria(owner, code, null)
+                    : AssetQueries.stockCriteria(owner, code, null));
+            final Sort largestFirst = kind == Kind.CASH
+                    ? AssetQueries.cashSort("amount", Sort.Direction.DESC)
+                    : AssetQueries.stockSort("amount", Sort.Direction.DESC);
+
+            final List<StateAndRef<? extends Asset>> selected = new ArrayList<>();
+            long total = 0;
+            // Every state we lock drops out of the next query, so each query starts from the first page again.
+            while (total < quantity) {
+                final Vault.Page<? extends Asset> candidates = vault.queryBy(type, criteria, CANDIDATES, largestFirst);
+                if (candidates.getStates().isEmpty()) {
+                    throw new FlowException("Insufficient " + code + " held by " + owner + " to deliver "
+                            + Asset.toAmount(quantity));
+                }
+                for (StateAndRef<? extends Asset> candidate : candidates.getStates()) {
+                    if (total >= quantity) break;
+                    try {
+                        vault.softLockReserve(getRunId().getUuid(), NonEmptySet.of(candidate.getRef()));
+                    } catch (StatesNotAvailableException e) {
+                        // Locked by another flow since the query ran.
+                        continue;
+                    }
+                    selected.add(candidate);
+                    total += candidate.getState().getData().getQuantity();
+                }
+            }
+            return selected;
+        }
+
+        private static Duration backoff(int attempt) {
+            final long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+            // Jitter keeps flows that conflicted with each other from retrying in lockstep.
+            return Duration.ofMillis(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+        }
+    }
+
+    // ******************
+    // * Responder flow *
+    // ******************
+    @InitiatedBy(Initiator.class)
+    public static class Responder extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartySession;
+
+        public Responder(FlowSession otherPartySession) {
+            this.otherPartySession = otherPartySession;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            // Only parties that deliver something are asked to sign; the others just receive the transaction.
+            final boolean signer = otherPartySession.receive(Boolean.class).unwrap(it -> it);
+            if (!signer) {
+                return subFlow(new ReceiveFinalityFlow(otherPartySession));
+            }
+
+            // What we deliver and receive in each asset under the legs we are signing for.
+            @SuppressWarnings("unchecked")
+            final List<Leg> legs = net(otherPartySession.receive(List.class).unwrap(it -> (List<Leg>) it));
+            final Party us = getOurIdentity();
+
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                // The contract holds every owner's holding to the net positions in the Settle command, so it is
+                // enough to check that the command states ours as the legs do.
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    final AssetContract.Commands.Settle settle = stx.getTx().getCommands().stream()
+                            .map(Command::getValue)
+                            .filter(AssetContract.Commands.Settle.class::isInstance)
+                            .map(AssetContract.Commands.Settle.class::cast)
+                            .findFirst()
+                            .orElseThrow(() -> new FlowException("Not a settlement transaction"));
+                    requireOurPosition(settle.getCash(), netPositions(legs, Kind.CASH), us);
+                    requireOurPosition(settle.getStock(), netPositions(legs, Kind.STOCK), us);
+                }
+            }
+
+            final SignTxFlow signTxFlow = new SignTxFlow(otherPartySession, SignTransactionFlow.Companion.tracker());
+            final SecureHash txId = subFlow(signTxFlow).getId();
+
+            return subFlow(new ReceiveFinalityFlow(otherPartySession, txId));
+        }
+
+        private static void requireOurPosition(Map<String, Map<Party, Long>> proposed,
+                                               Map<String, Map<Party, Long>> agreed, Party us) throws FlowException {
+            final Set<String> codes = new LinkedHashSet<>(proposed.keySet());
+            codes.addAll(agreed.keySet());
+            for (String code : codes) {
+                final Long ours = proposed.getOrDefault(code, Collections.emptyMap()).get(us);
+                final Long expected = agreed.getOrDefault(code, Collections.emptyMap()).get(us);
+                if (!Objects.equals(ours, expected)) {
+                    throw new FlowException("Settlement moves " + (ours == null ? 0 : Asset.toAmount(ours)) + " " + code
+                            + " for us, but the legs agreed " + (expected == null ? 0 : Asset.toAmount(expected)));
+                }
+            }
+        }
+    }
+}
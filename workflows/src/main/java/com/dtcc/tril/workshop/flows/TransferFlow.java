@@ -2,20 +2,33 @@ package com.dtcc.tril.workshop.flows;
 
 import co.paralleluniverse.fibers.Suspendable;
 import com.dtcc.tril.workshop.contracts.AssetContract;
+import com.dtcc.tril.workshop.metrics.FlowMetrics;
+import com.dtcc.tril.workshop.queries.AssetQueries;
 import com.dtcc.tril.workshop.states.Cash;
 import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
 import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
 
 public class TransferFlow {
     // ******************
@@ -25,92 +38,172 @@ public class TransferFlow {
     @StartableByRPC
     public static class Initiator extends FlowLogic<SignedTransaction> {
 
-        // We will not use these ProgressTracker for this Hello-World sample
-        private final ProgressTracker progressTracker = new ProgressTracker();
+        private final Step QUERYING_VAULT = FlowSteps.queryingVault();
+        private final Step CHANGING_NOTARY = FlowSteps.changingNotary();
+        private final Step VERIFYING = FlowSteps.verifying();
+        private final Step SIGNING = FlowSteps.signing();
+        private final Step GATHERING_SIGS = FlowSteps.gatheringSignatures();
+        private final Step FINALISING = FlowSteps.finalising();
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                QUERYING_VAULT, CHANGING_NOTARY, VERIFYING, SIGNING, GATHERING_SIGS, FINALISING);
 
         @Override
         public ProgressTracker getProgressTracker() {
             return progressTracker;
         }
 
-        // private variables
-        private final Party party;
-        private final Party counterparty;
-        private final Cash cash;
-        private final Stock stock;
+        // Candidates fetched per selection; later ones are only tried if earlier ones were locked under us.
+        private static final PageSpecification CANDIDATES = new PageSpecification(DEFAULT_PAGE_NUM, 10);
+
+        // A notary conflict means another transaction spent one of our inputs first; retry with fresh inputs.
+        private static final int MAX_ATTEMPTS = 5;
+        private static final long BASE_BACKOFF_MILLIS = 100;
+        private static final long MAX_BACKOFF_MILLIS = 2000;
+
+        // private variables: only what the flow needs from the requested Cash and Stock, since every field is
+        // checkpointed at every suspension.
+        private final Party payer;
+        private final String currency;
+        private final double cashAmount;
+        private final Party seller;
+        private final String ticker;
+        private final double stockAmount;
 
         // public constructor
         public Initiator(Cash cash, Stock stock) {
-            this.party = cash.getOwner();
-            this.counterparty = stock.getOwner();
-            this.cash = cash;
-            this.stock = stock;
+            this.payer = cash.getOwner();
+            this.currency = cash.getCurrency();
+            this.cashAmount = cash.getAmount();
+            this.seller = stock.getOwner();
+            this.ticker = stock.getTicker();
+            this.stockAmount = stock.getAmount();
         }
 
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            // Step 1. Get a reference to the notary service on our network and our key pair.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final FlowMetrics.Steps steps = getServiceHub().cordaService(FlowMetrics.class).begin(this);
+            try {
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        return steps.completed(transfer(steps));
+                    } catch (NotaryException e) {
+                        if (!(e.getError() instanceof NotaryError.Conflict) || attempt == MAX_ATTEMPTS) throw e;
+                        // Drop the locks on inputs that are still good so the next selection can see them again.
+                        getServiceHub().getVaultService().softLockRelease(getRunId().getUuid(), null);
+                        sleep(backoff(attempt));
+                    }
+                }
+            } catch (FlowException | RuntimeException e) {
+                steps.failed();
+                throw e;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction transfer(FlowMetrics.Steps steps) throws FlowException {
+            // Step 1. Get the input and output states of the transaction
+            steps.next(QUERYING_VAULT);
+            final StateAndRef<Cash> cashInput = reserve(Cash.class,
+                    AssetQueries.cashCriteria(payer, currency, cashAmount), "cash");
+            StateAndRef<Stock> stockInput = reserve(Stock.class,
+                    AssetQueries.stockCriteria(seller, ticker, stockAmount), "stock");
+
+            // Step 2. The transaction is notarised where the cash lives; move the stock there if it lives elsewhere.
+            final Party notary = cashInput.getState().getNotary();
+            if (!stockInput.getState().getNotary().equals(notary)) {
+                steps.next(CHANGING_NOTARY);
+                stockInput = moveTo(stockInput, notary);
+                getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(),
+                        NonEmptySet.of(stockInput.getRef()));
+            }
+
+            // Steps 3 to 5 do not suspend, so the outputs and builder they work with are never checkpointed.
+            final SignedTransaction ptx = propose(cashInput, stockInput, notary, steps);
+
+            // Step 6. Collect the other party's signature using the SignTransactionFlow.
+            final List<FlowSession> sessions = sessions();
 
-            // Step 2. Get the input and output states of the transaction
-            final StateAndRef<Cash> input1 = queryCash(cash);
-            final StateAndRef<Stock> input2 = queryStock(stock);
+            steps.next(GATHERING_SIGS);
+            final SignedTransaction stx = subFlow(
+                    new CollectSignaturesFlow(ptx, sessions, GATHERING_SIGS.childProgressTracker()));
 
-            final Cash output1 = new Cash(cash.getCurrency(), cash.getAmount(), stock.getOwner());
-            final Stock output2 = new Stock(stock.getTicker(), stock.getAmount(), cash.getOwner());
+            // Step 7. Assuming no exceptions, we can now finalise the transaction
+            steps.next(FINALISING);
+            return subFlow(new FinalityFlow(stx, sessions, FINALISING.childProgressTracker()));
+        }
 
-            output1.addParticipant(cash.getOwner());
-            output2.addParticipant(stock.getOwner());
+        /** Composes, verifies and signs the exchange of {@code cashInput} for {@code stockInput}. */
+        private SignedTransaction propose(StateAndRef<Cash> cashInput, StateAndRef<Stock> stockInput, Party notary,
+                                          FlowMetrics.Steps steps) throws FlowException {
+            // The inputs were selected on exactly the requested quantities, which the outputs carry over unchanged.
+            final Cash cashOutput = new Cash(currency, cashInput.getState().getData().getQuantity(),
+                    seller, Collections.singletonList(payer));
+            final Stock stockOutput = new Stock(ticker, stockInput.getState().getData().getQuantity(),
+                    payer, Collections.singletonList(seller));
 
             // Step 3. Create a new TransactionBuilder object.
             final TransactionBuilder builder = new TransactionBuilder(notary);
 
             // Step 4. Add the Cash as an output state, as well as a command to the
             // transaction builder.
-            builder.addInputState(input1);
-            builder.addInputState(input2);
-            builder.addOutputState(output1);
-            builder.addOutputState(output2);
+            builder.addInputState(cashInput);
+            builder.addInputState(stockInput);
+            builder.addOutputState(cashOutput);
+            builder.addOutputState(stockOutput);
             builder.addCommand(new AssetContract.Commands.Transfer(),
-                    Arrays.asList(this.party.getOwningKey(), this.counterparty.getOwningKey()));
+                    Arrays.asList(payer.getOwningKey(), seller.getOwningKey()));
 
             // Step 5. Verify and sign it with our KeyPair.
+            steps.next(VERIFYING);
             builder.verify(getServiceHub());
-            final SignedTransaction ptx = getServiceHub().signInitialTransaction(builder);
-
-            // Step 6. Collect the other party's signature using the SignTransactionFlow.
-            List<FlowSession> sessions = Stream.of(party, counterparty)
-                    .filter(el -> !el.equals(getOurIdentity()))
-                    .map(this::initiateFlow)
-                    .collect(Collectors.toList());
+            steps.next(SIGNING);
+            return getServiceHub().signInitialTransaction(builder);
+        }
 
-            SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, sessions));
+        /** Sessions with whichever of the payer and seller we are not. */
+        @Suspendable
+        private List<FlowSession> sessions() {
+            final List<FlowSession> sessions = new ArrayList<>(1);
+            if (!payer.equals(getOurIdentity())) sessions.add(initiateFlow(payer));
+            if (!seller.equals(getOurIdentity())) sessions.add(initiateFlow(seller));
+            return sessions;
+        }
 
-            // Step 7. Assuming no exceptions, we can now finalise the transaction
-            return subFlow(new FinalityFlow(stx, sessions));
+        /** Replaces {@code input} with the same state on {@code notary}, signed off by all of its participants. */
+        @Suspendable
+        @SuppressWarnings("unchecked")
+        private <T extends ContractState> StateAndRef<T> moveTo(StateAndRef<T> input, Party notary)
+                throws FlowException {
+            // The flow is typed StateAndRef<? extends T> from Java; the state it returns is the input's, re-notarised.
+            return (StateAndRef<T>) subFlow(
+                    new NotaryChangeFlow<>(input, notary, CHANGING_NOTARY.childProgressTracker()));
         }
 
-        private StateAndRef<Cash> queryCash(Cash c) {
-            return getServiceHub().getVaultService().queryBy(Cash.class).getStates().stream()
-                    .filter(it -> {
-                        Cash state = it.getState().getData();
-                        return state.getCurrency().equals(c.getCurrency())
-                                && Math.abs(state.getAmount() - c.getAmount()) < 0.001
-                                && state.getOwner().equals(c.getOwner());
-                    })
-                    .findFirst().orElseThrow(() -> new RuntimeException("Could not find cash state in vault"));
+        /**
+         * Soft-locks and returns the first unlocked state matching {@code criteria}, so that concurrent transfers
+         * never pick the same input. The lock is held under this flow's run id and released when the flow ends.
+         */
+        private <T extends ContractState> StateAndRef<T> reserve(Class<T> type, QueryCriteria criteria, String name) {
+            final VaultService vault = getServiceHub().getVaultService();
+            final List<StateAndRef<T>> candidates =
+                    vault.queryBy(type, AssetQueries.unlocked(criteria), CANDIDATES).getStates();
+            for (int i = 0; i < candidates.size(); i++) {
+                try {
+                    vault.softLockReserve(getRunId().getUuid(), NonEmptySet.of(candidates.get(i).getRef()));
+                    return candidates.get(i);
+                } catch (StatesNotAvailableException e) {
+                    // Locked by another flow since the query ran.
+                }
+            }
+            throw new RuntimeException("Could not find " + name + " state in vault");
         }
 
-        private StateAndRef<Stock> queryStock(Stock s) {
-            return getServiceHub().getVaultService().queryBy(Stock.class).getStates().stream()
-                    .filter(it -> {
-                        Stock state = it.getState().getData();
-                        return state.getTicker().equals(s.getTicker())
-                                && Math.abs(state.getAmount() - s.getAmount()) < 0.001
-                                && state.getOwner().equals(s.getOwner());
-                    })
-                    .findFirst().orElseThrow(() -> new RuntimeException("Could not find cash state in vault"));
+        private static Duration backoff(int attempt) {
+            final long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+            // Jitter keeps flows that conflicted with each other from retrying in lockstep.
+            return Duration.ofMillis(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
         }
     }
 
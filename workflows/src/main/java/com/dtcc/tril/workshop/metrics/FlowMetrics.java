@@ -0,0 +1,164 @@
+package com.dtcc.tril.workshop.metrics;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.ProgressTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts started, completed and failed flows per flow type, and times each of their progress tracker steps.
+ *
+ * Everything is published over JMX under {@code com.dtcc.tril.workshop}: one {@code type=Flows} bean per flow and
+ * one {@code type=FlowSteps} bean per flow and step, each keyed by the node's name so that several nodes can share a
+ * JVM in tests.
+ */
+@CordaService
+public class FlowMetrics extends SingletonSerializeAsToken {
+    private static final Logger logger = LoggerFactory.getLogger(FlowMetrics.class);
+    private static final String DOMAIN = "com.dtcc.tril.workshop";
+
+    private final String node;
+    private final ConcurrentMap<String, FlowStats> flows = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StepStats> steps = new ConcurrentHashMap<>();
+
+    public FlowMetrics(AppServiceHub serviceHub) {
+        this.node = serviceHub.getMyInfo().getLegalIdentities().get(0).getName().toString();
+    }
+
+    /** Counts {@code flow} as started and returns the timer that its steps are reported through. */
+    public Steps begin(FlowLogic<?> flow) {
+        final String name = name(flow.getClass());
+        flow(name).started.increment();
+        return new Steps(this, name, flow.getProgressTracker());
+    }
+
+    private FlowStats flow(String name) {
+        return flows.computeIfAbsent(name, key -> register(new FlowStats(), FlowStatsMBean.class,
+                "type=Flows,node=" + ObjectName.quote(node) + ",flow=" + key));
+    }
+
+    private StepStats step(String flow, String step) {
+        return steps.computeIfAbsent(flow + '\n' + step, key -> register(new StepStats(), StepStatsMBean.class,
+                "type=FlowSteps,node=" + ObjectName.quote(node) + ",flow=" + flow + ",step=" + ObjectName.quote(step)));
+    }
+
+    private <T> T register(T stats, Class<? super T> type, String properties) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new StandardMBean(stats, type), new ObjectName(DOMAIN + ":" + properties));
+        } catch (JMException e) {
+            logger.warn("Could not publish flow metrics " + properties, e);
+        }
+        return stats;
+    }
+
+    /** {@code IssueCashFlow.Initiator} rather than the binary name of the nested class. */
+    private static String name(Class<?> type) {
+        final Class<?> enclosing = type.getEnclosingClass();
+        return enclosing == null ? type.getSimpleName() : enclosing.getSimpleName() + "." + type.getSimpleName();
+    }
+
+    /**
+     * Moves a flow through its progress tracker and times each step. One instance belongs to one run of a flow; it is
+     * checkpointed with it.
+     */
+    public static final class Steps {
+        private final FlowMetrics metrics;
+        private final String flow;
+        private final ProgressTracker tracker;
+        private ProgressTracker.Step current;
+        private long startedAt;
+
+        private Steps(FlowMetrics metrics, String flow, ProgressTracker tracker) {
+            this.metrics = metrics;
+            this.flow = flow;
+            this.tracker = tracker;
+        }
+
+        /** Ends the current step, if any, and starts {@code step}. */
+        public void next(ProgressTracker.Step step) {
+            finish();
+            tracker.setCurrentStep(step);
+            current = step;
+            startedAt = System.nanoTime();
+        }
+
+        /** Ends the current step and counts the flow as completed with {@code result}. */
+        public <T> T completed(T result) {
+            finish();
+            metrics.flow(flow).completed.increment();
+            return result;
+        }
+
+        /** Counts the flow as failed. The step it failed in is not timed. */
+        public void failed() {
+            current = null;
+            metrics.flow(flow).failed.increment();
+        }
+
+        private void finish() {
+            if (current == null) return;
+            final long elapsed = System.nanoTime() - startedAt;
+            // A step that spans a node restart has no meaningful duration.
+            if (elapsed >= 0) metrics.step(flow, current.getLabel()).record(elapsed);
+            current = null;
+        }
+    }
+
+    public interface FlowStatsMBean {
+        long getStarted();
+        long getCompleted();
+        long getFailed();
+    }
+
+    public interface StepStatsMBean {
+        long getCount();
+        double getMeanMillis();
+        double getMaxMillis();
+        double getTotalMillis();
+    }
+
+    private static final class FlowStats implements FlowStatsMBean {
+        private final LongAdder started = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        @Override public long getStarted() { return started.sum(); }
+        @Override public long getCompleted() { return completed.sum(); }
+        @Override public long getFailed() { return failed.sum(); }
+    }
+
+    private static final class StepStats implements StepStatsMBean {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        @Override public long getCount() { return count.sum(); }
+        @Override public double getMeanMillis() { return count.sum() == 0 ? 0 : getTotalMillis() / count.sum(); }
+        @Override public double getMaxMillis() { return millis(maxNanos.get()); }
+        @Override public double getTotalMillis() { return millis(totalNanos.sum()); }
+
+        private static double millis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
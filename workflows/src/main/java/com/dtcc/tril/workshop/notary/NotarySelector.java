@@ -0,0 +1,92 @@
+package com.dtcc.tril.workshop.notary;
+
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the notary for new states, so that issuance can be spread over several notaries.
+ *
+ * The policy is read from the {@code notaryPolicy} key of the workflows CorDapp config:
+ * <ul>
+ *     <li>{@code first}: the first notary in the network map, as before. This is the default.</li>
+ *     <li>{@code hash}: by hash of the currency or ticker, so all states of one asset share a notary and later
+ *     transfers of it rarely need a notary change.</li>
+ *     <li>{@code round-robin}: each notary in turn.</li>
+ *     <li>{@code least-loaded}: the notary with the fewest of this node's transactions in flight.</li>
+ * </ul>
+ * Every {@link #choose} must be matched by a {@link #release} once the transaction is finalised or abandoned.
+ */
+@CordaService
+public class NotarySelector extends SingletonSerializeAsToken {
+    public enum Policy { FIRST, HASH, ROUND_ROBIN, LEAST_LOADED }
+
+    private final AppServiceHub serviceHub;
+    private final Policy policy;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ConcurrentMap<Party, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public NotarySelector(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.policy = config.exists("notaryPolicy")
+                ? Policy.valueOf(config.getString("notaryPolicy").toUpperCase(Locale.ROOT).replace('-', '_'))
+                : Policy.FIRST;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /** The notary for a new transaction issuing or moving {@code code}, a currency or ticker. */
+    public Party choose(String code) {
+        final List<Party> notaries = serviceHub.getNetworkMapCache().getNotaryIdentities();
+        if (notaries.isEmpty()) throw new IllegalStateException("There are no notaries on the network");
+
+        final Party notary;
+        switch (policy) {
+            case HASH:
+                notary = byName(notaries).get(Math.floorMod(code.hashCode(), notaries.size()));
+                break;
+            case ROUND_ROBIN:
+                notary = byName(notaries).get(Math.floorMod(next.getAndIncrement(), notaries.size()));
+                break;
+            case LEAST_LOADED:
+                notary = byName(notaries).stream()
+                        .min(Comparator.comparingInt(candidate -> load(candidate).get()))
+                        .orElseThrow(IllegalStateException::new);
+                break;
+            default:
+                notary = notaries.get(0);
+        }
+        load(notary).incrementAndGet();
+        return notary;
+    }
+
+    /** Marks a transaction for {@code notary} as no longer in flight. */
+    public void release(Party notary) {
+        // A flow restored from a checkpoint after a restart releases a notary it never chose in this process.
+        load(notary).updateAndGet(count -> Math.max(0, count - 1));
+    }
+
+    private AtomicInteger load(Party notary) {
+        return inFlight.computeIfAbsent(notary, key -> new AtomicInteger());
+    }
+
+    /** Notaries in name order, so that every node maps a hash to the same notary. */
+    private static List<Party> byName(List<Party> notaries) {
+        final List<Party> sorted = new ArrayList<>(notaries);
+        sorted.sort(Comparator.comparing(party -> party.getName().toString()));
+        return sorted;
+    }
+}
@@ -0,0 +1,242 @@
+package com.dtcc.tril.workshop.queries;
+
+import com.dtcc.tril.workshop.schemas.CashSchemaV2.PersistentCash;
+import com.dtcc.tril.workshop.schemas.StockSchemaV2.PersistentStock;
+import com.dtcc.tril.workshop.states.Asset;
+import com.dtcc.tril.workshop.states.Cash;
+import com.dtcc.tril.workshop.states.Stock;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.FieldInfo;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.schemas.StatePersistable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vault query criteria for Cash and Stock states.
+ *
+ * All predicates are pushed down to the indexed columns of {@link com.dtcc.tril.workshop.schemas.CashSchemaV2}
+ * and {@link com.dtcc.tril.workshop.schemas.StockSchemaV2}, so a lookup never loads states it does not return.
+ * A null argument means "match anything" for that column. Amounts are matched exactly, as the fixed-point quantity
+ * they round to.
+ */
+public final class AssetQueries {
+    public static final FieldInfo CASH_OWNER = field("owner", PersistentCash.class);
+    public static final FieldInfo CASH_CURRENCY = field("currency", PersistentCash.class);
+    public static final FieldInfo CASH_QUANTITY = field("quantity", PersistentCash.class);
+
+    public static final FieldInfo STOCK_OWNER = field("owner", PersistentStock.class);
+    public static final FieldInfo STOCK_TICKER = field("ticker", PersistentStock.class);
+    public static final FieldInfo STOCK_QUANTITY = field("quantity", PersistentStock.class);
+
+    private AssetQueries() {}
+
+    /** Unconsumed Cash states matching the given owner, currency and amount. */
+    public static QueryCriteria cashCriteria(Party owner, String currency, Double amount) {
+        return cashCriteria(Vault.StateStatus.UNCONSUMED, owner, currency, amount);
+    }
+
+    /** Cash states with the given status matching the given owner, currency and amount. */
+    public static QueryCriteria cashCriteria(Vault.StateStatus status, Party owner, String currency, Double amount) {
+        return criteria(status, CASH_OWNER, owner, CASH_CURRENCY, currency, CASH_QUANTITY, amount);
+    }
+
+    /** Unconsumed Stock states matching the given owner, ticker and amount. */
+    public static QueryCriteria stockCriteria(Party owner, String ticker, Double amount) {
+        return stockCriteria(Vault.StateStatus.UNCONSUMED, owner, ticker, amount);
+    }
+
+    /** Stock states with the given status matching the given owner, ticker and amount. */
+    public static QueryCriteria stockCriteria(Vault.StateStatus status, Party owner, String ticker, Double amount) {
+        return criteria(status, STOCK_OWNER, owner, STOCK_TICKER, ticker, STOCK_QUANTITY, amount);
+    }
+
+    /** Runs an aggregate vault query and returns its {@code otherResults}, whether over RPC or in a flow. */
+    public interface Aggregates {
+        List<Object> query(QueryCriteria criteria);
+    }
+
+    /**
+     * Unconsumed Cash totals and state counts by owner and currency. Null arguments match anything. Two queries over
+     * the indexed quantity column, whatever the number of groups: a grouped SQL sum, and a grouped average from which
+     * each group's count is derived, since the vault cannot count by group.
+     */
+    public static List<Position> cashPositions(Aggregates vault, Party owner, String currency) {
+        return positions(vault, cashCriteria(owner, currency, null), CASH_QUANTITY, CASH_OWNER, CASH_CURRENCY);
+    }
+
+    /** Unconsumed Stock totals and state counts by owner and ticker; see {@link #cashPositions}. */
+    public static List<Position> stockPositions(Aggregates vault, Party owner, String ticker) {
+        return positions(vault, stockCriteria(owner, ticker, null), STOCK_QUANTITY, STOCK_OWNER, STOCK_TICKER);
+    }
+
+    /** Unconsumed Cash positions, for use in flows. */
+    public static List<Position> cashPositions(VaultService vault, Party owner, String currency) {
+        return cashPositions(criteria -> vault.queryBy(Cash.class, criteria).getOtherResults(), owner, currency);
+    }
+
+    /** Unconsumed Stock positions, for use in flows. */
+    public static List<Position> stockPositions(VaultService vault, Party owner, String ticker) {
+        return stockPositions(criteria -> vault.queryBy(Stock.class, criteria).getOtherResults(), owner, ticker);
+    }
+
+    /**
+     * Restricts {@code criteria}, which should have the same status, to states whose recorded or consumed time lies
+     * between {@code from} and {@code to} inclusive. Consumed time only applies to consumed states.
+     */
+    public static QueryCriteria during(QueryCriteria criteria, Vault.StateStatus status,
+                                       QueryCriteria.TimeInstantType timeType, Instant from, Instant to) {
+        return criteria.and(new QueryCriteria.VaultQueryCriteria(status).withTimeCondition(
+                new QueryCriteria.TimeCondition(timeType, new ColumnPredicate.Between<>(from, to))));
+    }
+
+    /**
+     * A total order by recorded or consumed time, then state reference, for paging through history by time without
+     * offsets.
+     */
+    public static Sort historySort(QueryCriteria.TimeInstantType timeType) {
+        final Sort.VaultStateAttribute time = timeType == QueryCriteria.TimeInstantType.CONSUMED
+                ? Sort.VaultStateAttribute.CONSUMED_TIME
+                : Sort.VaultStateAttribute.RECORDED_TIME;
+        return new Sort(Arrays.asList(
+                new Sort.SortColumn(new SortAttribute.Standard(time), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID),
+                        Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX),
+                        Sort.Direction.ASC)));
+    }
+
+    /** Restricts {@code criteria} to states that no flow has soft-locked. */
+    public static QueryCriteria unlocked(QueryCriteria criteria) {
+        return criteria.and(new QueryCriteria.VaultQueryCriteria().withSoftLockingCondition(
+                new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY,
+                        Collections.emptyList())));
+    }
+
+    /**
+     * Sort order for Cash queries. {@code column} is one of owner, currency, amount or recorded; null
+     * means recorded time, which is the cheapest order for the vault to produce.
+     */
+    public static Sort cashSort(String column, Sort.Direction direction) {
+        return sort(PersistentCash.class, "currency", column, direction);
+    }
+
+    /**
+     * Sort order for Stock queries. {@code column} is one of owner, ticker, amount or recorded; null
+     * means recorded time, which is the cheapest order for the vault to produce.
+     */
+    public static Sort stockSort(String column, Sort.Direction direction) {
+        return sort(PersistentStock.class, "ticker", column, direction);
+    }
+
+    /** The value stored in the owner column for the given party. */
+    public static String ownerColumn(Party owner) {
+        return owner.getName().toString();
+    }
+
+    // Every part of the criteria carries the status; a custom criteria left at its default would narrow any other
+    // status back to unconsumed.
+    private static QueryCriteria criteria(Vault.StateStatus status,
+                                          FieldInfo ownerField, Party owner,
+                                          FieldInfo codeField, String code,
+                                          FieldInfo quantityField, Double amount) {
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(status);
+        if (owner != null) {
+            criteria = criteria.and(custom(Builder.equal(ownerField, ownerColumn(owner)), status));
+        }
+        if (code != null) {
+            criteria = criteria.and(custom(Builder.equal(codeField, code), status));
+        }
+        if (amount != null) {
+            criteria = criteria.and(custom(Builder.equal(quantityField, Asset.toQuantity(amount)), status));
+        }
+        return criteria;
+    }
+
+    // Builder's FieldInfo overloads type their expressions over Object, which VaultCustomQueryCriteria's
+    // StatePersistable bound rejects, so the criteria has to be built raw.
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static QueryCriteria custom(CriteriaExpression expression, Vault.StateStatus status) {
+        return new QueryCriteria.VaultCustomQueryCriteria(expression, status);
+    }
+
+    private static List<Position> positions(Aggregates vault, QueryCriteria filter, FieldInfo quantityField,
+                                            FieldInfo ownerField, FieldInfo codeField) {
+        final Vault.StateStatus status = Vault.StateStatus.UNCONSUMED;
+        final List<FieldInfo> groupBy = Arrays.asList(ownerField, codeField);
+        final Map<List<Object>, Number> sums = grouped(vault.query(filter.and(
+                custom(Builder.sum(quantityField, groupBy), status))), "sum");
+        final Map<List<Object>, Number> averages = grouped(vault.query(filter.and(
+                custom(Builder.avg(quantityField, groupBy), status))), "average");
+
+        final List<Position> positions = new ArrayList<>(sums.size());
+        for (Map.Entry<List<Object>, Number> group : sums.entrySet()) {
+            final Number average = averages.get(group.getKey());
+            // A group missing from the second query was consumed in between; quantities are positive, so the
+            // average is never 0.
+            if (average == null) continue;
+            final long sum = group.getValue().longValue();
+            positions.add(new Position((String) group.getKey().get(0), (String) group.getKey().get(1), sum,
+                    Math.round(sum / average.doubleValue())));
+        }
+        positions.sort(Comparator.comparing(Position::getOwner).thenComparing(Position::getCode));
+        return positions;
+    }
+
+    /** Each group of a grouped aggregate comes back as its value followed by its owner and code columns. */
+    private static Map<List<Object>, Number> grouped(List<Object> results, String function) {
+        if (results.size() % 3 != 0) {
+            throw new IllegalStateException("Unexpected grouped " + function + " layout " + results);
+        }
+        final Map<List<Object>, Number> groups = new HashMap<>(results.size() / 3 * 2);
+        for (int i = 0; i < results.size(); i += 3) {
+            final Object value = results.get(i);
+            final Object owner = results.get(i + 1);
+            final Object code = results.get(i + 2);
+            if (!(value instanceof Number) || !(owner instanceof String) || !(code instanceof String)) {
+                throw new IllegalStateException("Unexpected grouped " + function + " layout "
+                        + results.subList(i, i + 3));
+            }
+            groups.put(Arrays.asList(owner, code), (Number) value);
+        }
+        return groups;
+    }
+
+    private static Sort sort(Class<? extends StatePersistable> entity, String codeColumn,
+                             String column, Sort.Direction direction) {
+        final SortAttribute attribute;
+        if (column == null || column.equals("recorded")) {
+            attribute = new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME);
+        } else if (column.equals("amount")) {
+            attribute = new SortAttribute.Custom(entity, "quantity");
+        } else if (column.equals("owner") || column.equals(codeColumn)) {
+            attribute = new SortAttribute.Custom(entity, column);
+        } else {
+            throw new IllegalArgumentException("Cannot sort by " + column);
+        }
+        return new Sort(Collections.singletonList(new Sort.SortColumn(attribute, direction)));
+    }
+
+    private static FieldInfo field(String name, Class<?> entity) {
+        try {
+            return QueryCriteriaUtils.getField(name, entity);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("No column " + name + " on " + entity.getName(), e);
+        }
+    }
+}
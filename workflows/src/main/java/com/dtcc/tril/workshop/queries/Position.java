@@ -0,0 +1,32 @@
+package com.dtcc.tril.workshop.queries;
+
+import com.dtcc.tril.workshop.states.Asset;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.serialization.SerializableCalculatedProperty;
+
+/**
+ * The total amount of one currency or ticker held by one owner, and how many states make it up.
+ */
+@CordaSerializable
+public class Position {
+    private final String owner;
+    private final String code;
+    private final long quantity;
+    private final long states;
+
+    public Position(String owner, String code, long quantity, long states) {
+        this.owner = owner;
+        this.code = code;
+        this.quantity = quantity;
+        this.states = states;
+    }
+
+    /** The owner's X.500 name, as stored in the vault schema. */
+    public String getOwner() { return owner; }
+    public String getCode() { return code; }
+    /** The exact total, in thousandths of a unit. */
+    public long getQuantity() { return quantity; }
+    @SerializableCalculatedProperty
+    public double getAmount() { return Asset.toAmount(quantity); }
+    public long getStates() { return states; }
+}